@@ -0,0 +1,178 @@
+package com.example.gamesocket;
+// BinaryProtocol.java
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Giao thức nhị phân dùng song song với giao thức text.
+ *
+ * Bắt tay: ngay sau khi kết nối, client gửi dòng text "PROTOCOL:BINARY" và chờ
+ * dòng text "PROTOCOL_OK:BINARY". Từ sau đó cả hai chiều dùng frame nhị phân.
+ * Client cũ không gửi dòng này nên vẫn dùng text như trước.
+ *
+ * Frame: [độ dài (varint)] [opcode (1 byte)] [các trường varint]
+ * Các message hay gặp trong trận có opcode riêng, chỉ vài byte và đọc ra không cần tạo String.
+ * Mọi message khác đi trong frame OP_TEXT, payload là dòng text UTF-8 cũ.
+ */
+public final class BinaryProtocol {
+    public static final String HANDSHAKE_REQUEST = "PROTOCOL:BINARY";
+    public static final String HANDSHAKE_ACK = "PROTOCOL_OK:BINARY";
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    public static final byte OP_TEXT = 0;
+    public static final byte OP_GAME_ACTION = 1;           // grainIndex
+    public static final byte OP_GRAIN_RESULT = 2;          // grainIndex, resultType, score
+    public static final byte OP_OPPONENT_GRAIN_CLICK = 3;  // grainIndex, resultType
+    public static final byte OP_OPPONENT_SCORE = 4;        // isSelf (0/1), score
+
+    /**
+     * Loại kết quả của hạt, gửi đi dưới dạng chỉ số trong mảng này
+     */
+    public static final String[] RESULT_TYPES = {
+            "RICE", "RICE_BUFF", "RICE_DEBUFF", "CHAFF", "CHAFF_BUFF", "CHAFF_DEBUFF", "SCORE_BUFF", "SCORE_DEBUFF"
+    };
+
+    private static final String GAME_ACTION = "GAME_ACTION:";
+    private static final String GRAIN_RESULT = "GRAIN_RESULT:";
+    private static final String OPPONENT_GRAIN_CLICK = "OPPONENT_GRAIN_CLICK:";
+    private static final String OPPONENT_SCORE = "OPPONENT_SCORE:";
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Mã hóa message server -> client. recipient dùng cho OPPONENT_SCORE
+     * (chỉ gửi cờ "điểm của chính mình" thay vì tên người chơi).
+     */
+    public static byte[] encodeServerMessage(String message, String recipient) {
+        try {
+            if (message.startsWith(GRAIN_RESULT)) {
+                int start = GRAIN_RESULT.length();
+                int comma1 = message.indexOf(',', start);
+                int comma2 = message.indexOf(',', comma1 + 1);
+                int type = resultTypeIndex(message, comma1 + 1, comma2);
+                if (comma1 > 0 && comma2 > 0 && type >= 0) {
+                    return frame(OP_GRAIN_RESULT,
+                            Integer.parseInt(message, start, comma1, 10),
+                            type,
+                            Integer.parseInt(message, comma2 + 1, message.length(), 10));
+                }
+            } else if (message.startsWith(OPPONENT_GRAIN_CLICK)) {
+                int start = OPPONENT_GRAIN_CLICK.length();
+                int comma = message.indexOf(',', start);
+                int type = resultTypeIndex(message, comma + 1, message.length());
+                if (comma > 0 && type >= 0) {
+                    return frame(OP_OPPONENT_GRAIN_CLICK, Integer.parseInt(message, start, comma, 10), type);
+                }
+            } else if (message.startsWith(OPPONENT_SCORE)) {
+                int start = OPPONENT_SCORE.length();
+                int comma = message.lastIndexOf(',');
+                if (comma > start) {
+                    boolean isSelf = recipient != null && comma - start == recipient.length()
+                            && message.startsWith(recipient, start);
+                    return frame(OP_OPPONENT_SCORE, isSelf ? 1 : 0,
+                            Integer.parseInt(message, comma + 1, message.length(), 10));
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Message không đúng định dạng, gửi nguyên dạng text
+        }
+        return textFrame(message);
+    }
+
+    /**
+     * Mã hóa lệnh client -> server
+     */
+    public static byte[] encodeClientMessage(String message) {
+        if (message.startsWith(GAME_ACTION)) {
+            try {
+                return frame(OP_GAME_ACTION, Integer.parseInt(message, GAME_ACTION.length(), message.length(), 10));
+            } catch (NumberFormatException e) {
+                // gửi dạng text, server sẽ tự báo lỗi
+            }
+        }
+        return textFrame(message);
+    }
+
+    public static byte[] textFrame(String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + text.length;
+        byte[] frame = new byte[varintSize(length) + length];
+        int pos = writeVarint(frame, 0, length);
+        frame[pos++] = OP_TEXT;
+        System.arraycopy(text, 0, frame, pos, text.length);
+        return frame;
+    }
+
+    private static byte[] frame(byte opcode, int... fields) {
+        int length = 1;
+        for (int field : fields) {
+            length += varintSize(field);
+        }
+        byte[] frame = new byte[varintSize(length) + length];
+        int pos = writeVarint(frame, 0, length);
+        frame[pos++] = opcode;
+        for (int field : fields) {
+            pos = writeVarint(frame, pos, field);
+        }
+        return frame;
+    }
+
+    private static int resultTypeIndex(String message, int start, int end) {
+        if (start <= 0 || end < start) {
+            return -1;
+        }
+        for (int i = 0; i < RESULT_TYPES.length; i++) {
+            String type = RESULT_TYPES[i];
+            if (type.length() == end - start && message.startsWith(type, start)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static int writeVarint(byte[] buffer, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Đọc một varint trong data[pos, limit) mà không tạo object.
+     * Kết quả gói trong một long: giá trị ở 32 bit cao, vị trí kế tiếp ở 32 bit thấp
+     * (lấy bằng varintValue/varintEnd). Trả về -1 nếu varint chưa đủ byte.
+     */
+    public static long decodeVarint(byte[] data, int pos, int limit) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos >= limit) {
+                return -1;
+            }
+            byte b = data[pos++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return ((long) value << 32) | pos;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static int varintValue(long decoded) {
+        return (int) (decoded >>> 32);
+    }
+
+    public static int varintEnd(long decoded) {
+        return (int) decoded;
+    }
+}
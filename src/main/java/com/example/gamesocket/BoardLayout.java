@@ -0,0 +1,104 @@
+package com.example.gamesocket;
+// BoardLayout.java
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Sinh bàn chơi từ một seed, dùng chung cho server và client.
+ *
+ * Cùng seed và cùng tham số thì mọi JVM sinh ra đúng cùng một bàn (java.util.Random có thuật toán
+ * cố định theo đặc tả), nên GAME_STARTED chỉ cần gửi seed thay cho danh sách vị trí hạt gạo,
+ * và một trận có thể dựng lại y hệt từ seed để xem lại.
+ *
+ * Vị trí được chọn bằng Fisher-Yates dừng sớm: count bước, mỗi bước một lần nextInt, không thử lại.
+ */
+public final class BoardLayout {
+
+    /**
+     * Tham số bàn chơi của một trận
+     */
+    public static final class Params {
+        // Bàn cổ điển 100 hạt; bàn lớn hơn giữ cùng tỉ lệ
+        public static final Params CLASSIC = new Params(100, 67, 5, 3, 50);
+
+        private final int totalGrains;
+        private final int riceCount;
+        private final int buffCount;
+        private final int debuffCount;
+        private final int targetScore;
+
+        public Params(int totalGrains, int riceCount, int buffCount, int debuffCount, int targetScore) {
+            if (totalGrains <= 0 || riceCount <= 0 || riceCount > totalGrains || buffCount < 0 || debuffCount < 0
+                    || buffCount + debuffCount > totalGrains || targetScore <= 0) {
+                throw new IllegalArgumentException("Invalid board: " + totalGrains + " grains, " + riceCount + " rice, "
+                        + buffCount + " buffs, " + debuffCount + " debuffs, target " + targetScore);
+            }
+            this.totalGrains = totalGrains;
+            this.riceCount = riceCount;
+            this.buffCount = buffCount;
+            this.debuffCount = debuffCount;
+            this.targetScore = targetScore;
+        }
+
+        /**
+         * Bàn totalGrains hạt với tỉ lệ gạo, power-up và điểm thắng như bàn cổ điển
+         */
+        public static Params scaled(int totalGrains) {
+            return new Params(totalGrains, scale(CLASSIC.riceCount, totalGrains), scale(CLASSIC.buffCount, totalGrains),
+                    scale(CLASSIC.debuffCount, totalGrains), Math.max(1, scale(CLASSIC.targetScore, totalGrains)));
+        }
+
+        private static int scale(int classicValue, int totalGrains) {
+            return (int) ((long) classicValue * totalGrains / CLASSIC.totalGrains);
+        }
+
+        public int getTotalGrains() { return totalGrains; }
+        public int getRiceCount() { return riceCount; }
+        public int getBuffCount() { return buffCount; }
+        public int getDebuffCount() { return debuffCount; }
+        public int getTargetScore() { return targetScore; }
+
+        @Override
+        public String toString() {
+            return totalGrains + " grains, " + riceCount + " rice, " + buffCount + " buffs, " + debuffCount
+                    + " debuffs, target " + targetScore;
+        }
+    }
+
+    private BoardLayout() {
+    }
+
+    /**
+     * Các hạt gạo của bàn: riceCount vị trí khác nhau trong [0, totalGrains)
+     */
+    public static BitSet rice(long seed, int totalGrains, int riceCount) {
+        int[] order = pick(seed, totalGrains, riceCount);
+        BitSet rice = new BitSet(totalGrains);
+        for (int i = 0; i < riceCount; i++) {
+            rice.set(order[i]);
+        }
+        return rice;
+    }
+
+    /**
+     * Hoán vị ngẫu nhiên của [0, totalGrains) mà chỉ count phần tử đầu được xáo:
+     * order[0..count) là count vị trí khác nhau
+     */
+    public static int[] pick(long seed, int totalGrains, int count) {
+        if (count < 0 || count > totalGrains) {
+            throw new IllegalArgumentException("Cannot pick " + count + " of " + totalGrains + " grains");
+        }
+        Random random = new Random(seed);
+        int[] order = new int[totalGrains];
+        for (int i = 0; i < totalGrains; i++) {
+            order[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(totalGrains - i);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+}
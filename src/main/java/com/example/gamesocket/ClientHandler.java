@@ -2,16 +2,34 @@ package com.example.gamesocket;
 // ClientHandler.java
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class ClientHandler implements Runnable {
     private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private WireReader reader;
+    private OutputStream output;
     private GameServer server;
-    private String username;
-    private boolean inGame;
-    private String currentGameId;
+    // Ghi từ worker thread (LOGIN ở chế độ NIO), đọc trong cleanup() trên event loop
+    private volatile String username;
+    // Được ghi cả từ shard thread của trận (GameServer.endGame) nên cần volatile
+    private volatile boolean inGame;
+    private volatile String currentGameId;
     private String currentLobbyId;
+    private NioServer.Connection connection; // chỉ dùng ở chế độ NIO
+    // Tạo trong start(), sau khi handler đã dựng xong, vì callback overflow gọi lại disconnect()
+    private OutboundQueue outboundQueue;
+    // Giao thức nhị phân: chiều nhận bật khi client gửi PROTOCOL:BINARY,
+    // chiều gửi bật ngay sau khi dòng PROTOCOL_OK:BINARY đã được ghi ra
+    private volatile boolean binaryInbound;
+    private boolean binaryOutbound;
+    // Heartbeat: thời điểm nhận dữ liệu gần nhất và hẹn giờ kiểm tra kế tiếp trên timing wheel
+    private volatile long lastInboundNanos = System.nanoTime();
+    private volatile TimingWheel.Timeout heartbeatTimeout;
+    private volatile boolean closed;
+    private final RateLimiter rateLimiter = new RateLimiter();
+    private boolean flooding;
 
     public ClientHandler(Socket socket, GameServer server) {
         this.socket = socket;
@@ -19,19 +37,76 @@ public class ClientHandler implements Runnable {
         this.inGame = false;
 
         try {
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
+            reader = new WireReader(new BufferedInputStream(socket.getInputStream()));
+            output = socket.getOutputStream();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Dùng cho chế độ NIO: event loop đọc và tách dòng, rồi gọi handleLine()
+     */
+    ClientHandler(GameServer server, NioServer.Connection connection) {
+        this.server = server;
+        this.connection = connection;
+        this.inGame = false;
+    }
+
+    /**
+     * Tạo hàng đợi gửi và đặt hẹn giờ heartbeat. Gọi ngay sau constructor, trước khi
+     * handler được giao cho thread khác, để không thread nào thấy một handler dựng dở.
+     */
+    void start() {
+        Runnable onReady = connection != null ? connection::requestFlush : null;
+        outboundQueue = new OutboundQueue(ServerConfig.outboundCapacity(), ServerConfig.slowConsumerPolicy(),
+                onReady, () -> disconnect("outbound queue overflow"));
+        scheduleHeartbeat();
+    }
+
+    /**
+     * Đặt lần kiểm tra heartbeat kế tiếp. Mỗi kết nối chỉ giữ một hẹn giờ trên timing wheel;
+     * dữ liệu đến chỉ cập nhật lastInboundNanos chứ không phải hủy/đặt lại hẹn giờ.
+     */
+    private void scheduleHeartbeat() {
+        long interval = ServerConfig.heartbeatIntervalSeconds();
+        if (interval == 0 || closed) {
+            return;
+        }
+        heartbeatTimeout = server.getTimers().schedule(this::checkHeartbeat, TimeUnit.SECONDS.toMillis(interval));
+    }
+
+    /**
+     * Chạy trên thread của timing wheel: quá idle timeout thì ngắt kết nối
+     * (cleanup() sẽ xử thua trận đang chơi), còn im lặng quá một chu kỳ thì gửi PING
+     */
+    private void checkHeartbeat() {
+        if (closed) {
+            return;
+        }
+        long idleNanos = System.nanoTime() - lastInboundNanos;
+        if (idleNanos >= TimeUnit.SECONDS.toNanos(ServerConfig.idleTimeoutSeconds())) {
+            server.recordIdleReap();
+            disconnect("idle timeout");
+            return;
+        }
+        if (idleNanos >= TimeUnit.SECONDS.toNanos(ServerConfig.heartbeatIntervalSeconds())) {
+            sendMessage("PING");
+        }
+        scheduleHeartbeat();
+    }
+
     @Override
     public void run() {
         try {
-            String message;
-            while ((message = reader.readLine()) != null) {
-                handleMessage(message);
+            while (true) {
+                if (binaryInbound) {
+                    if (!reader.readFrame()) break;
+                    handleBinaryFrame(reader.buffer(), 0, reader.length());
+                } else {
+                    if (!reader.readLineBytes()) break;
+                    handleLine(reader.buffer(), 0, reader.length());
+                }
             }
         } catch (IOException e) {
             System.out.println("Client disconnected: " + username);
@@ -40,46 +115,191 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void handleMessage(String message) {
-        String[] parts = message.split(":", 2);
-        String command = parts[0];
-        String data = parts.length > 1 ? parts[1] : "";
+    /**
+     * Writer task của chế độ blocking: lấy message từ hàng đợi và ghi ra socket,
+     * để thread gọi sendMessage() không bao giờ bị block bởi socket chậm.
+     */
+    void runWriter() {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(1024);
+        long windowMillis = ServerConfig.coalesceWindowMillis();
+        try {
+            OutboundQueue.Entry entry;
+            while ((entry = outboundQueue.take()) != null) {
+                if (windowMillis > 0) {
+                    // Chờ thêm một chút để gom các message đến ngay sau đó
+                    Thread.sleep(windowMillis);
+                }
+                // Gom mọi message đang chờ vào một buffer và ghi socket một lần
+                int count = 0;
+                batch.reset();
+                do {
+                    try {
+                        batch.write(encodeOutbound(entry));
+                    } finally {
+                        entry.release();
+                    }
+                    count++;
+                } while ((entry = outboundQueue.poll()) != null);
+                batch.writeTo(output);
+                output.flush();
+                OutboundBatch.recordMessages(count);
+                OutboundBatch.recordSocketWrite();
+            }
+        } catch (IOException e) {
+            disconnect("write failed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mã hóa message theo giao thức hiện tại của client. Chỉ gọi từ writer task / event loop.
+     * Message dùng chung trả về luôn mảng byte đã mã hóa sẵn (không được sửa mảng này).
+     */
+    byte[] encodeOutbound(OutboundQueue.Entry entry) {
+        if (entry.shared() != null) {
+            return entry.shared().bytes(binaryOutbound);
+        }
+        String message = entry.message();
+        if (binaryOutbound) {
+            return BinaryProtocol.encodeServerMessage(message, username);
+        }
+        if (binaryInbound && message.equals(BinaryProtocol.HANDSHAKE_ACK)) {
+            binaryOutbound = true;
+        }
+        return (message + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    boolean isBinaryInbound() {
+        return binaryInbound;
+    }
+
+    /**
+     * Xử lý một frame nhị phân: opcode ở data[offset], các trường varint theo sau
+     */
+    void handleBinaryFrame(byte[] data, int offset, int length) {
+        lastInboundNanos = System.nanoTime();
+        OutboundBatch.begin();
+        try {
+            dispatchFrame(data, offset, offset + length);
+        } finally {
+            OutboundBatch.end();
+        }
+    }
+
+    private void dispatchFrame(byte[] data, int offset, int end) {
+        switch (data[offset]) {
+            case BinaryProtocol.OP_GAME_ACTION:
+                if (!allowCommand(RateLimiter.GAME_ACTION)) {
+                    return;
+                }
+                long grainIndex = BinaryProtocol.decodeVarint(data, offset + 1, end);
+                if (grainIndex >= 0) {
+                    handleGameAction(BinaryProtocol.varintValue(grainIndex));
+                }
+                break;
+            case BinaryProtocol.OP_TEXT:
+                dispatch(data, offset + 1, end);
+                break;
+            default:
+                System.out.println("Unknown opcode " + data[offset] + " from " + username);
+        }
+    }
+
+    /**
+     * Xử lý một dòng lệnh text nằm trong line[start, end).
+     * Tên lệnh được đổi sang mã lệnh ngay trên mảng byte; GAME_ACTION (lệnh gửi nhiều nhất)
+     * đọc luôn chỉ số hạt tại chỗ nên bước đọc lệnh và dispatch không tạo object nào (xem
+     * GameActionAllocationTest). Các lệnh khác mới tạo String dữ liệu.
+     */
+    void handleLine(byte[] line, int start, int end) {
+        lastInboundNanos = System.nanoTime();
+        // Mọi message sinh ra trong lúc xử lý lệnh này được gửi đi cùng một lần
+        OutboundBatch.begin();
+        try {
+            dispatch(line, start, end);
+        } finally {
+            OutboundBatch.end();
+        }
+    }
+
+    private void dispatch(byte[] line, int start, int end) {
+        int separator = CommandParser.separator(line, start, end);
+        int command = CommandParser.command(line, start, separator);
+        // Kiểm tra giới hạn trước khi đọc dữ liệu lệnh: lệnh bị bỏ không tốn thêm gì
+        if (!allowCommand(RateLimiter.commandClass(command))) {
+            return;
+        }
+
+        if (command == CommandParser.GAME_ACTION) {
+            int grainIndex = CommandParser.parseNonNegativeInt(line, separator + 1, end);
+            if (grainIndex >= 0) {
+                handleGameAction(grainIndex);
+            } else {
+                System.out.println("Invalid game action from " + username);
+            }
+            return;
+        }
+        if (command == CommandParser.UNKNOWN) {
+            return;
+        }
+
+        String data = separator < end
+                ? new String(line, separator + 1, end - separator - 1, StandardCharsets.UTF_8)
+                : "";
 
         switch (command) {
-            case "LOGIN":
-                handleLogin(data);
+            case CommandParser.PROTOCOL:
+                if ("BINARY".equals(data) && !binaryInbound) {
+                    binaryInbound = true;
+                    sendMessage(BinaryProtocol.HANDSHAKE_ACK);
+                }
                 break;
-            case "REGISTER":
-                handleRegister(data);
+            case CommandParser.LOGIN:
+                runBlocking(() -> handleLogin(data));
                 break;
-            case "GET_ONLINE_USERS":
+            case CommandParser.REGISTER:
+                runBlocking(() -> handleRegister(data));
+                break;
+            case CommandParser.GET_ONLINE_USERS:
                 server.sendOnlineUsersToClient(this);
                 break;
-            case "INVITE":
+            case CommandParser.INVITE:
                 server.handleGameInvitation(username, data);
                 break;
-            case "ACCEPT_INVITATION":
+            case CommandParser.ACCEPT_INVITATION:
                 server.handleInvitationResponse(username, data, true);
                 break;
-            case "REJECT_INVITATION":
+            case CommandParser.REJECT_INVITATION:
                 server.handleInvitationResponse(username, data, false);
                 break;
-            case "GAME_ACTION":
-                handleGameAction(data);
-                break;
-            case "USE_BUFF":
+            case CommandParser.USE_BUFF:
                 handleUseBuffDebuff(username, true);
                 break;
-            case "USE_DEBUFF":
+            case CommandParser.USE_DEBUFF:
                 handleUseBuffDebuff(username, false);
                 break;
-            case "GET_LEADERBOARD":
-                sendMessage(server.getLeaderboard());
+            case CommandParser.GET_LEADERBOARD:
+                SharedMessage leaderboard = server.getLeaderboard();
+                try {
+                    sendShared(leaderboard);
+                } finally {
+                    leaderboard.release();
+                }
                 break;
-            case "GET_MATCH_HISTORY":
-                sendMessage(server.getMatchHistory(username));
+            case CommandParser.GET_RANK:
+                String rankUser = data.isEmpty() ? username : data;
+                if (rankUser != null) {
+                    sendMessage(server.getRank(rankUser));
+                }
+                break;
+            case CommandParser.GET_MATCH_HISTORY:
+                runBlocking(() -> sendMessage(server.getMatchHistory(username)));
+                break;
+            case CommandParser.GET_MATCH_HISTORY_PAGE:
+                runBlocking(() -> sendMessage(server.getMatchHistoryPage(username, data)));
                 break;
-            case "PRIVATE_MESSAGE":
+            case CommandParser.PRIVATE_MESSAGE:
                 String[] chatParts = data.split(":", 2);
                 if (chatParts.length == 2) {
                     String recipient = chatParts[0];
@@ -87,18 +307,71 @@ public class ClientHandler implements Runnable {
                     server.sendPrivateMessage(this.username, recipient, messageContent);
                 }
                 break;
-            case "START_GAME":
+            case CommandParser.START_GAME:
                 server.handleStartGameRequest(data, username);
                 break;
-            case "LEAVE_LOBBY":
+            case CommandParser.LEAVE_LOBBY:
                 handleLeaveLobby();
                 break;
-            case "QUIT_GAME":
+            case CommandParser.QUIT_GAME:
                 handleQuitGame();
                 break;
+            case CommandParser.PING:
+                sendMessage("PONG");
+                break;
+            case CommandParser.PONG:
+                // Chỉ cần cập nhật lastInboundNanos (đã làm ở trên)
+                break;
+        }
+    }
+
+    /**
+     * Lệnh phải chờ DB/file (đăng nhập, đăng ký, lịch sử đấu). Ở chế độ NIO lệnh này không được chạy
+     * trên event loop vì sẽ chặn mọi kết nối khác của loop: nó được chuyển sang worker thread, và kết nối
+     * ngừng đọc lệnh tiếp theo cho tới khi lệnh xong để các lệnh vẫn được xử lý đúng thứ tự.
+     */
+    private void runBlocking(Runnable command) {
+        if (connection == null) {
+            command.run();
+            return;
+        }
+        connection.suspendReads();
+        try {
+            server.getWorkerExecutor().execute(() -> {
+                OutboundBatch.begin();
+                try {
+                    command.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    OutboundBatch.end();
+                    connection.resumeReads();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Server đang dừng
+            connection.resumeReads();
         }
     }
 
+    /**
+     * Kiểm tra token bucket của nhóm lệnh. Lệnh vượt giới hạn bị bỏ;
+     * bỏ quá nhiều thì ngắt kết nối (một lần duy nhất).
+     */
+    private boolean allowCommand(int commandClass) {
+        if (flooding) {
+            return false;
+        }
+        if (rateLimiter.tryAcquire(commandClass)) {
+            return true;
+        }
+        if (rateLimiter.recordViolation()) {
+            flooding = true;
+            disconnect("flooding");
+        }
+        return false;
+    }
+
     private void handleLogin(String data) {
         String[] credentials = data.split(",");
         if (credentials.length == 2) {
@@ -106,12 +379,18 @@ public class ClientHandler implements Runnable {
             String password = credentials[1];
 
             if (server.authenticateUser(user, password)) {
-                if (server.getOnlineClients().containsKey(user)) {
-                    sendMessage("LOGIN_FAILED:User already online");
-                } else {
+                if (username != null) {
+                    sendMessage("LOGIN_FAILED:Already logged in as " + username);
+                } else if (server.registerClient(user, this)) {
                     this.username = user;
-                    server.addClient(username, this);
+                    if (closed) {
+                        // Kết nối đã đóng trong lúc đăng nhập: cleanup() có thể chưa thấy username nên tự gỡ
+                        server.removeClient(user, this);
+                        return;
+                    }
                     sendMessage("LOGIN_SUCCESS:" + username);
+                } else {
+                    sendMessage("LOGIN_FAILED:User already online");
                 }
             } else {
                 sendMessage("LOGIN_FAILED:Invalid credentials");
@@ -133,14 +412,9 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void handleGameAction(String data) {
+    private void handleGameAction(int grainIndex) {
         if (currentGameId != null) {
-            try {
-                int grainIndex = Integer.parseInt(data);
-                server.handleGameAction(currentGameId, username, grainIndex);
-            } catch (NumberFormatException e) {
-                System.out.println("Invalid game action from " + username + ": " + data);
-            }
+            server.handleGameAction(currentGameId, username, grainIndex);
         }
     }
 
@@ -153,7 +427,6 @@ public class ClientHandler implements Runnable {
             // Reset trạng thái của client này
             setInGame(false);
             setCurrentGameId(null);
-            server.broadcastOnlineUsers();
         }
     }
 
@@ -172,8 +445,34 @@ public class ClientHandler implements Runnable {
     }
 
     public void sendMessage(String message) {
-        if (writer != null) {
-            writer.println(message);
+        outboundQueue.offer(message);
+    }
+
+    /**
+     * Gửi message đã mã hóa sẵn dùng chung cho nhiều người nhận (xem SharedMessage)
+     */
+    public void sendShared(SharedMessage message) {
+        outboundQueue.offer(message);
+    }
+
+    OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * Ngắt kết nối từ phía server (ví dụ client đọc quá chậm). Việc dọn dẹp
+     * vẫn đi qua cleanup() như khi client tự thoát.
+     */
+    void disconnect(String reason) {
+        System.out.println("Disconnecting " + username + ": " + reason);
+        if (connection != null) {
+            connection.requestClose();
+            return;
+        }
+        try {
+            if (socket != null && !socket.isClosed()) socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -183,6 +482,10 @@ public class ClientHandler implements Runnable {
 
     public void setInGame(boolean inGame) {
         this.inGame = inGame;
+        if (username != null) {
+            // PresenceTracker tự bỏ qua nếu trạng thái không đổi hoặc user đã offline
+            server.getPresence().statusChanged(username, inGame);
+        }
     }
 
     public String getCurrentGameId() {
@@ -205,10 +508,15 @@ public class ClientHandler implements Runnable {
         return username;
     }
 
-    private void cleanup() {
+    void cleanup() {
+        closed = true;
+        TimingWheel.Timeout timeout = heartbeatTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
         try {
             if (username != null) {
-                server.removeClient(username);
+                server.removeClient(username, this);
             }
 
             if (inGame && currentGameId != null) {
@@ -219,8 +527,9 @@ public class ClientHandler implements Runnable {
                 server.handleLobbyClose(currentLobbyId, username);
             }
 
-            if (reader != null) reader.close();
-            if (writer != null) writer.close();
+            outboundQueue.close();
+            if (connection != null) connection.close();
+            if (output != null) output.close();
             if (socket != null && !socket.isClosed()) socket.close();
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,118 @@
+package com.example.gamesocket;
+// CommandParser.java
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Đọc lệnh client gửi lên trực tiếp trên mảng byte của dòng, không split, không tạo String.
+ * Tên lệnh được tra qua bảng dựng sẵn theo byte đầu tiên rồi so từng byte,
+ * kết quả là một mã lệnh (int) để ClientHandler switch.
+ */
+public final class CommandParser {
+    public static final int UNKNOWN = -1;
+    public static final int PROTOCOL = 0;
+    public static final int LOGIN = 1;
+    public static final int REGISTER = 2;
+    public static final int GET_ONLINE_USERS = 3;
+    public static final int INVITE = 4;
+    public static final int ACCEPT_INVITATION = 5;
+    public static final int REJECT_INVITATION = 6;
+    public static final int GAME_ACTION = 7;
+    public static final int USE_BUFF = 8;
+    public static final int USE_DEBUFF = 9;
+    public static final int GET_LEADERBOARD = 10;
+    public static final int GET_MATCH_HISTORY = 11;
+    public static final int PRIVATE_MESSAGE = 12;
+    public static final int START_GAME = 13;
+    public static final int LEAVE_LOBBY = 14;
+    public static final int QUIT_GAME = 15;
+    public static final int PING = 16;
+    public static final int PONG = 17;
+    public static final int GET_RANK = 18;
+    public static final int GET_MATCH_HISTORY_PAGE = 19;
+
+    // Thứ tự phải khớp với các mã lệnh ở trên
+    private static final String[] NAMES = {
+            "PROTOCOL", "LOGIN", "REGISTER", "GET_ONLINE_USERS", "INVITE", "ACCEPT_INVITATION",
+            "REJECT_INVITATION", "GAME_ACTION", "USE_BUFF", "USE_DEBUFF", "GET_LEADERBOARD",
+            "GET_MATCH_HISTORY", "PRIVATE_MESSAGE", "START_GAME", "LEAVE_LOBBY", "QUIT_GAME",
+            "PING", "PONG", "GET_RANK", "GET_MATCH_HISTORY_PAGE"
+    };
+    private static final byte[][] NAME_BYTES = new byte[NAMES.length][];
+    // Các lệnh được nhóm theo byte đầu tiên của tên lệnh
+    private static final int[][] BY_FIRST_BYTE = new int[128][];
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            NAME_BYTES[i] = NAMES[i].getBytes(StandardCharsets.US_ASCII);
+            int first = NAME_BYTES[i][0];
+            int[] bucket = BY_FIRST_BYTE[first];
+            int[] grown = new int[bucket == null ? 1 : bucket.length + 1];
+            if (bucket != null) {
+                System.arraycopy(bucket, 0, grown, 0, bucket.length);
+            }
+            grown[grown.length - 1] = i;
+            BY_FIRST_BYTE[first] = grown;
+        }
+    }
+
+    private CommandParser() {
+    }
+
+    /**
+     * Vị trí dấu ':' đầu tiên trong dòng, hoặc end nếu lệnh không có dữ liệu
+     */
+    public static int separator(byte[] line, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (line[i] == ':') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Mã lệnh của tên lệnh nằm trong line[start, nameEnd), hoặc UNKNOWN
+     */
+    public static int command(byte[] line, int start, int nameEnd) {
+        if (start >= nameEnd || line[start] < 0) {
+            return UNKNOWN;
+        }
+        int[] candidates = BY_FIRST_BYTE[line[start]];
+        if (candidates == null) {
+            return UNKNOWN;
+        }
+        int length = nameEnd - start;
+        for (int candidate : candidates) {
+            byte[] name = NAME_BYTES[candidate];
+            if (name.length != length) {
+                continue;
+            }
+            int i = 1;
+            while (i < length && name[i] == line[start + i]) {
+                i++;
+            }
+            if (i == length) {
+                return candidate;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Đọc số nguyên không âm trong line[start, end). Trả về -1 nếu không hợp lệ.
+     */
+    public static int parseNonNegativeInt(byte[] line, int start, int end) {
+        if (start >= end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,458 @@
+package com.example.gamesocket;
+// ConnectionPool.java
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool kết nối JDBC có giới hạn, thay cho việc gọi DriverManager.getConnection ở mỗi truy vấn.
+ *
+ * - Tối đa maxSize kết nối; hết chỗ thì chờ tối đa acquireTimeout rồi ném SQLException
+ * - Kết nối rảnh quá lâu được kiểm tra bằng isValid() trước khi cho mượn
+ * - Kết nối sống quá maxLifetime bị đóng và thay mới (tránh bị DB/proxy cắt ngầm)
+ * - Mỗi kết nối giữ lại tối đa statementCacheSize PreparedStatement theo câu SQL (LRU):
+ *   prepareStatement(sql) lần sau trên cùng kết nối dùng lại statement đã prepare,
+ *   close() chỉ xóa tham số và trả statement về cache
+ *
+ * getConnection() trả về một proxy: close() chỉ trả kết nối về pool. Dùng với try-with-resources:
+ * <pre>
+ *     try (Connection conn = pool.getConnection(); PreparedStatement stmt = ...) { ... }
+ * </pre>
+ */
+public class ConnectionPool {
+
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final long createdAtNanos;
+        private long lastUsedNanos;
+        // Statement đã prepare theo câu SQL, thứ tự truy cập (LRU). Chỉ người đang mượn kết nối động tới.
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.createdAtNanos = System.nanoTime();
+            this.lastUsedNanos = createdAtNanos;
+        }
+    }
+
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private boolean inUse;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * Số lần dùng lại / phải prepare của một câu SQL
+     */
+    private static final class StatementStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder prepares = new LongAdder();
+        private final LongAdder prepareNanos = new LongAdder();
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final long acquireTimeoutNanos;
+    private final long maxLifetimeNanos;
+    private final long validationIntervalNanos;
+    private final int statementCacheSize;
+    private final Semaphore permits;
+    // Kết nối rảnh, dùng như stack (LIFO) để kết nối nóng được dùng lại trước
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private volatile boolean closed;
+
+    // Thống kê
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder acquireTimeouts = new LongAdder();
+    private final LongAdder acquireWaitNanos = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder retiredByLifetime = new LongAdder();
+    private final LongAdder failedValidation = new LongAdder();
+    private final Map<String, StatementStats> statementStats = new ConcurrentHashMap<>();
+
+    public ConnectionPool(String url, String user, String password, int maxSize, long acquireTimeoutMillis,
+                          long maxLifetimeSeconds, long validationIntervalSeconds, int statementCacheSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.permits = new Semaphore(maxSize, true);
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        this.maxLifetimeNanos = TimeUnit.SECONDS.toNanos(maxLifetimeSeconds);
+        this.validationIntervalNanos = TimeUnit.SECONDS.toNanos(validationIntervalSeconds);
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Mượn một kết nối. Phải close() (trả về pool) sau khi dùng xong.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                acquireTimeouts.increment();
+                throw new SQLTransientConnectionException("Timed out after "
+                        + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos) + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        acquireWaitNanos.add(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled = takeHealthyIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                totalConnections.incrementAndGet();
+                created.increment();
+            }
+            acquired.increment();
+            return wrap(pooled);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeHealthyIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            long now = System.nanoTime();
+            if (now - pooled.createdAtNanos > maxLifetimeNanos) {
+                retiredByLifetime.increment();
+                discard(pooled);
+                continue;
+            }
+            if (now - pooled.lastUsedNanos > validationIntervalNanos && !isValid(pooled)) {
+                failedValidation.increment();
+                discard(pooled);
+                continue;
+            }
+            return pooled;
+        }
+        return null;
+    }
+
+    private static boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Trả kết nối về pool (gọi từ proxy khi close())
+     */
+    private void release(PooledConnection pooled, boolean broken) {
+        try {
+            boolean expired = System.nanoTime() - pooled.createdAtNanos > maxLifetimeNanos;
+            if (broken || closed || expired || pooled.connection.isClosed()) {
+                if (expired) {
+                    retiredByLifetime.increment();
+                }
+                discard(pooled);
+                return;
+            }
+            if (!pooled.connection.getAutoCommit()) {
+                // Giao dịch dở dang không được lọt sang người mượn sau
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            // Statement người mượn quên đóng: dọn như khi close() rồi trả lại cache
+            Iterator<CachedStatement> iterator = pooled.statements.values().iterator();
+            while (iterator.hasNext()) {
+                CachedStatement cached = iterator.next();
+                if (cached.inUse) {
+                    try {
+                        reset(cached.statement);
+                        cached.inUse = false;
+                    } catch (SQLException e) {
+                        iterator.remove();
+                        closeQuietly(cached.statement);
+                    }
+                }
+            }
+            pooled.lastUsedNanos = System.nanoTime();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        // Đóng kết nối là đóng luôn các statement của nó
+        pooled.statements.clear();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            // Kết nối hỏng thì đóng cũng có thể lỗi, bỏ qua
+        }
+    }
+
+    private Connection wrap(PooledConnection pooled) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionProxy(pooled));
+    }
+
+    /**
+     * Proxy của kết nối đang được mượn: close() trả kết nối về pool, prepareStatement(sql) dùng cache
+     */
+    private final class ConnectionProxy implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+        private boolean broken;
+
+        ConnectionProxy(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pooled.connection + "]";
+                case "unwrap":
+                case "isWrapperFor":
+                    break;
+                default:
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+            }
+            try {
+                if (statementCacheSize > 0 && method.getName().equals("prepareStatement") && args.length == 1) {
+                    return prepareCached((Connection) proxy, (String) args[0]);
+                }
+                return method.invoke(pooled.connection, args);
+            } catch (InvocationTargetException e) {
+                throw failed(e.getCause());
+            } catch (SQLException e) {
+                throw failed(e);
+            }
+        }
+
+        /**
+         * Lỗi mất kết nối (SQLState 08xxx): không trả kết nối này về pool nữa
+         */
+        Throwable failed(Throwable cause) {
+            if (cause instanceof SQLException sqlException && sqlException.getSQLState() != null
+                    && sqlException.getSQLState().startsWith("08")) {
+                broken = true;
+            }
+            return cause;
+        }
+
+        private PreparedStatement prepareCached(Connection proxy, String sql) throws SQLException {
+            StatementStats stats = statementStats.computeIfAbsent(sql, key -> new StatementStats());
+            CachedStatement cached = pooled.statements.get(sql);
+            if (cached != null && !cached.inUse) {
+                stats.hits.increment();
+                cached.inUse = true;
+                return wrapStatement(proxy, sql, cached, true);
+            }
+
+            long start = System.nanoTime();
+            PreparedStatement statement = pooled.connection.prepareStatement(sql);
+            stats.prepares.increment();
+            stats.prepareNanos.add(System.nanoTime() - start);
+            if (cached != null) {
+                // Cùng câu SQL đang mở lồng nhau trên kết nối này: bản thứ hai không vào cache
+                return wrapStatement(proxy, sql, new CachedStatement(statement), false);
+            }
+            cached = new CachedStatement(statement);
+            cached.inUse = true;
+            pooled.statements.put(sql, cached);
+            evictOverflow();
+            return wrapStatement(proxy, sql, cached, true);
+        }
+
+        private void evictOverflow() {
+            Iterator<CachedStatement> iterator = pooled.statements.values().iterator();
+            while (pooled.statements.size() > statementCacheSize && iterator.hasNext()) {
+                CachedStatement eldest = iterator.next();
+                if (!eldest.inUse) {
+                    iterator.remove();
+                    closeQuietly(eldest.statement);
+                }
+            }
+        }
+
+        private PreparedStatement wrapStatement(Connection proxy, String sql, CachedStatement cached, boolean inCache) {
+            InvocationHandler handler = new InvocationHandler() {
+                private boolean closed;
+
+                @Override
+                public Object invoke(Object statementProxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!closed) {
+                                closed = true;
+                                if (inCache && !returned) {
+                                    recycle(sql, cached);
+                                } else if (!inCache) {
+                                    cached.statement.close();
+                                }
+                            }
+                            return null;
+                        case "isClosed":
+                            return closed || returned || cached.statement.isClosed();
+                        case "getConnection":
+                            return proxy;
+                        case "equals":
+                            return statementProxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(statementProxy);
+                        case "toString":
+                            return "Cached[" + cached.statement + "]";
+                        case "unwrap":
+                        case "isWrapperFor":
+                            break;
+                        default:
+                            if (closed || returned) {
+                                throw new SQLException("Statement is closed");
+                            }
+                    }
+                    try {
+                        return method.invoke(cached.statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw failed(e.getCause());
+                    }
+                }
+            };
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, handler);
+        }
+
+        /**
+         * Trả statement về cache, sạch tham số và kết quả của lần dùng trước
+         */
+        private void recycle(String sql, CachedStatement cached) {
+            try {
+                reset(cached.statement);
+                cached.inUse = false;
+            } catch (SQLException e) {
+                failed(e);
+                pooled.statements.remove(sql, cached);
+                closeQuietly(cached.statement);
+            }
+        }
+    }
+
+    /**
+     * Xóa tham số, batch và kết quả của lần dùng trước để người mượn sau dùng lại statement
+     */
+    private static void reset(PreparedStatement statement) throws SQLException {
+        statement.clearParameters();
+        statement.clearBatch();
+        ResultSet resultSet = statement.getResultSet();
+        if (resultSet != null) {
+            resultSet.close();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Statement hỏng thì đóng cũng có thể lỗi, bỏ qua
+        }
+    }
+
+    /**
+     * Đóng mọi kết nối rảnh; kết nối đang được mượn sẽ bị đóng khi trả về
+     */
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    public String summary() {
+        long acquiredCount = acquired.sum();
+        long avgWaitMicros = acquiredCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(acquireWaitNanos.sum() / acquiredCount);
+        return "DB pool: " + totalConnections.get() + " open (" + idle.size() + " idle), " + acquiredCount
+                + " acquired, avg wait " + avgWaitMicros + " us, " + acquireTimeouts.sum() + " timeouts, "
+                + created.sum() + " created, " + retiredByLifetime.sum() + " retired, "
+                + failedValidation.sum() + " failed validation";
+    }
+
+    /**
+     * Tỷ lệ dùng lại statement, tổng và theo từng câu SQL. Mỗi lần dùng lại tiết kiệm một lượt prepare
+     * (một round-trip tới DB khi dùng server-side prepare); thời gian tiết kiệm ước theo thời gian prepare trung bình.
+     */
+    public String statementCacheSummary() {
+        long hits = 0;
+        long prepares = 0;
+        long prepareNanos = 0;
+        StringBuilder perStatement = new StringBuilder();
+        for (Map.Entry<String, StatementStats> entry : statementStats.entrySet()) {
+            StatementStats stats = entry.getValue();
+            long statementHits = stats.hits.sum();
+            long statementPrepares = stats.prepares.sum();
+            hits += statementHits;
+            prepares += statementPrepares;
+            prepareNanos += stats.prepareNanos.sum();
+            if (perStatement.length() > 0) {
+                perStatement.append(", ");
+            }
+            perStatement.append(label(entry.getKey())).append(' ')
+                    .append(hitPercent(statementHits, statementPrepares)).append('%');
+        }
+        long avgPrepareMicros = prepares == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(prepareNanos / prepares);
+        return "Statement cache: " + hitPercent(hits, prepares) + "% hit (" + hits + " reused, " + prepares
+                + " prepared, avg prepare " + avgPrepareMicros + " us, ~" + hits * avgPrepareMicros / 1000
+                + " ms saved) [" + perStatement + "]";
+    }
+
+    private static long hitPercent(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits * 100 / total;
+    }
+
+    private static String label(String sql) {
+        String compact = sql.strip().replaceAll("\\s+", " ");
+        return compact.length() > 40 ? compact.substring(0, 40) + "..." : compact;
+    }
+}
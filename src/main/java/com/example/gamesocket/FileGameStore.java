@@ -0,0 +1,404 @@
+package com.example.gamesocket;
+// FileGameStore.java
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * GameStore nhúng cho server chạy một máy (hoặc chạy thử không có MySQL).
+ *
+ * Dữ liệu nằm trong một file log chỉ ghi nối; mỗi bản ghi là một frame
+ * [độ dài][CRC32][loại + nội dung]. Lúc mở store, log được đọc lại từ đầu để dựng
+ * các chỉ mục trong bộ nhớ (người chơi theo username, lịch sử đấu theo từng người chơi).
+ * Frame cuối bị ghi dở (crash giữa chừng) được cắt bỏ.
+ *
+ * Mỗi lần ghi (đăng ký, một lô kết quả) được fsync trước khi trả về, tương đương
+ * một lần commit của DB. Chỉ mục chỉ được cập nhật sau khi ghi đĩa thành công.
+ */
+public class FileGameStore implements GameStore {
+    private static final byte RECORD_USER = 1;
+    // Kết quả trận cũ, chưa có result id (chỉ còn đọc)
+    private static final byte RECORD_RESULT = 2;
+    private static final byte RECORD_RESULT_WITH_ID = 3;
+
+    private static final Comparator<MatchRecord> BY_PLAYED_AT = Comparator
+            .comparingLong(MatchRecord::getPlayedAtMillis)
+            .thenComparingInt(MatchRecord::getId);
+
+    private static final class UserRecord {
+        private final String password;
+        private int totalScore;
+        private int gamesPlayed;
+        private int gamesWon;
+
+        UserRecord(String password) {
+            this.password = password;
+        }
+
+        UserStatsCache.UserStats stats() {
+            return new UserStatsCache.UserStats(totalScore, gamesPlayed, gamesWon);
+        }
+    }
+
+    private final File file;
+    private final Map<String, UserRecord> users = new HashMap<>();
+    // Lịch sử của từng người chơi, sắp theo (played_at, id) tăng dần
+    private final Map<String, List<MatchRecord>> historyByPlayer = new HashMap<>();
+    // Result id đã ghi: ghi lại cùng kết quả (từ file spill) thì bỏ qua
+    private final Set<String> resultIds = new HashSet<>();
+    // ReentrantLock thay cho synchronized: fsync dưới lock không ghim virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileOutputStream out;
+    private FileChannel channel;
+    private int nextResultId = 1;
+    private int resultCount;
+
+    // Thống kê
+    private long appends;
+    private long appendNanos;
+    private long truncatedBytes;
+
+    public FileGameStore(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void open() throws StoreException {
+        lock.lock();
+        try {
+            long validLength = replay();
+            FileOutputStream stream = new FileOutputStream(file, true);
+            try {
+                FileChannel streamChannel = stream.getChannel();
+                if (streamChannel.size() > validLength) {
+                    truncatedBytes = streamChannel.size() - validLength;
+                    System.err.println("Truncating " + truncatedBytes + " bytes of incomplete records from " + file);
+                    streamChannel.truncate(validLength);
+                }
+            } catch (IOException e) {
+                stream.close();
+                throw e;
+            }
+            // Chỉ gán khi mở thành công: store mở lỗi thì mọi lần ghi báo StoreException (ensureOpen)
+            out = stream;
+            channel = stream.getChannel();
+            System.out.println("File store " + file + ": " + users.size() + " users, " + resultCount + " game results");
+        } catch (IOException e) {
+            throw new StoreException("Could not open " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Đọc lại log, trả về độ dài phần hợp lệ
+     */
+    private long replay() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                long checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt() & 0xFFFFFFFFL;
+                    if (length <= 0 || length > file.length()) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload)));
+                validLength += 8 + length;
+            }
+        }
+        return validLength;
+    }
+
+    private void apply(DataInputStream record) throws IOException {
+        byte type = record.readByte();
+        if (type == RECORD_USER) {
+            String username = record.readUTF();
+            users.putIfAbsent(username, new UserRecord(record.readUTF()));
+        } else if (type == RECORD_RESULT_WITH_ID) {
+            int id = record.readInt();
+            applyResult(id, GameResultWriter.GameResult.readFrom(record));
+        } else if (type == RECORD_RESULT) {
+            int id = record.readInt();
+            applyResult(id, GameResultWriter.GameResult.readFrom(record, null));
+        } else {
+            throw new IOException("Unknown record type " + type + " in " + file);
+        }
+    }
+
+    private void applyResult(int id, GameResultWriter.GameResult result) {
+        MatchRecord match = new MatchRecord(id, result.getGameId(), result.getPlayer1(), result.getPlayer2(),
+                result.getWinner(), result.getScore1(), result.getScore2(), result.getDuration(),
+                result.getPlayedAtMillis());
+        addToHistory(result.getPlayer1(), match);
+        addToHistory(result.getPlayer2(), match);
+        // Như UPDATE ... WHERE username = ?: người chơi không tồn tại thì bỏ qua
+        addStats(result.getPlayer1(), result.getWinner().equals(result.getPlayer1()), result.getScore1());
+        addStats(result.getPlayer2(), result.getWinner().equals(result.getPlayer2()), result.getScore2());
+        if (result.getResultId() != null) {
+            resultIds.add(result.getResultId());
+        }
+        nextResultId = Math.max(nextResultId, id + 1);
+        resultCount++;
+    }
+
+    private void addToHistory(String username, MatchRecord match) {
+        List<MatchRecord> history = historyByPlayer.computeIfAbsent(username, name -> new ArrayList<>());
+        int index = history.size();
+        // Gần như luôn là thêm vào cuối; kết quả ghi lại từ file spill có thể cũ hơn
+        while (index > 0 && BY_PLAYED_AT.compare(history.get(index - 1), match) > 0) {
+            index--;
+        }
+        history.add(index, match);
+    }
+
+    private void addStats(String username, boolean won, int score) {
+        UserRecord user = users.get(username);
+        if (user != null) {
+            user.gamesPlayed++;
+            user.gamesWon += won ? 1 : 0;
+            user.totalScore += score;
+        }
+    }
+
+    /**
+     * open() lỗi (hoặc store đã đóng) thì không có file để ghi
+     */
+    private void ensureOpen() throws StoreException {
+        if (channel == null) {
+            throw new StoreException("File store " + file + " is not open", null);
+        }
+    }
+
+    /**
+     * Ghi nối các frame và fsync; lỗi giữa chừng thì cắt log về như cũ
+     */
+    private void append(byte[] frames) throws IOException {
+        long start = System.nanoTime();
+        long position = channel.size();
+        try {
+            out.write(frames);
+            channel.force(false);
+        } catch (IOException e) {
+            try {
+                channel.truncate(position);
+            } catch (IOException ignored) {
+                // Frame dở dang sẽ bị cắt ở lần mở sau
+            }
+            throw e;
+        }
+        appends++;
+        appendNanos += System.nanoTime() - start;
+    }
+
+    private static void writeFrame(ByteArrayOutputStream frames, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream frame = new DataOutputStream(frames);
+        frame.writeInt(payload.length);
+        frame.writeInt((int) crc.getValue());
+        frame.write(payload);
+    }
+
+    @Override
+    public boolean authenticate(String username, String password) {
+        lock.lock();
+        try {
+            UserRecord user = users.get(username);
+            return user != null && user.password.equals(password);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean registerUser(String username, String password) throws StoreException {
+        lock.lock();
+        try {
+            ensureOpen();
+            if (users.containsKey(username)) {
+                return false;
+            }
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(payload);
+            record.writeByte(RECORD_USER);
+            record.writeUTF(username);
+            record.writeUTF(password);
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            writeFrame(frames, payload.toByteArray());
+            append(frames.toByteArray());
+            users.put(username, new UserRecord(password));
+            return true;
+        } catch (IOException e) {
+            throw new StoreException("Could not register " + username, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public UserStatsCache.UserStats loadUserStats(String username) {
+        lock.lock();
+        try {
+            UserRecord user = users.get(username);
+            return user == null ? null : user.stats();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, UserStatsCache.UserStats> loadRankedUsers() {
+        lock.lock();
+        try {
+            Map<String, UserStatsCache.UserStats> ranked = new HashMap<>();
+            for (Map.Entry<String, UserRecord> entry : users.entrySet()) {
+                if (entry.getValue().gamesPlayed > 0) {
+                    ranked.put(entry.getKey(), entry.getValue().stats());
+                }
+            }
+            return ranked;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<GameResultWriter.GameResult> saveResults(List<GameResultWriter.GameResult> results)
+            throws StoreException {
+        lock.lock();
+        try {
+            List<GameResultWriter.GameResult> fresh = new ArrayList<>(results.size());
+            Set<String> batchIds = new HashSet<>();
+            for (GameResultWriter.GameResult result : results) {
+                if (!resultIds.contains(result.getResultId()) && batchIds.add(result.getResultId())) {
+                    fresh.add(result);
+                }
+            }
+            if (fresh.isEmpty()) {
+                return fresh;
+            }
+            ensureOpen();
+
+            // Cả lô là một lần ghi + một lần fsync
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            int id = nextResultId;
+            for (GameResultWriter.GameResult result : fresh) {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                DataOutputStream record = new DataOutputStream(payload);
+                record.writeByte(RECORD_RESULT_WITH_ID);
+                record.writeInt(id++);
+                result.writeTo(record);
+                record.flush();
+                writeFrame(frames, payload.toByteArray());
+            }
+            append(frames.toByteArray());
+
+            id = nextResultId;
+            for (GameResultWriter.GameResult result : fresh) {
+                applyResult(id++, result);
+            }
+            return fresh;
+        } catch (IOException e) {
+            throw new StoreException("Could not save " + results.size() + " game results", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<MatchRecord> matchHistory(String username, long afterPlayedAtMillis, int afterId, int limit) {
+        lock.lock();
+        try {
+            List<MatchRecord> history = historyByPlayer.getOrDefault(username, List.of());
+            // Vị trí đầu tiên không đứng trước con trỏ, rồi đi lùi (mới -> cũ)
+            int end = history.size();
+            if (afterPlayedAtMillis != NO_CURSOR) {
+                MatchRecord cursor = new MatchRecord(afterId, null, null, null, null, 0, 0, 0, afterPlayedAtMillis);
+                int low = 0;
+                int high = history.size();
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (BY_PLAYED_AT.compare(history.get(mid), cursor) < 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                end = low;
+            }
+            List<MatchRecord> page = new ArrayList<>(Math.min(limit, end));
+            for (int i = end - 1; i >= 0 && page.size() < limit; i--) {
+                page.add(history.get(i));
+            }
+            return page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+                channel = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String summary() {
+        lock.lock();
+        try {
+            long avgAppendMicros = appends == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(appendNanos / appends);
+            long size = file.length();
+            return "File store: " + users.size() + " users, " + resultCount + " game results, " + size
+                    + " bytes, " + appends + " appends (avg " + avgAppendMicros + " us incl. fsync), "
+                    + truncatedBytes + " bytes truncated on open";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
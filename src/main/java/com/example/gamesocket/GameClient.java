@@ -1,11 +1,13 @@
 package com.example.gamesocket;
 
 // GameClient.java
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
@@ -20,7 +22,9 @@ import java.util.function.Consumer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
@@ -31,6 +35,8 @@ import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.PasswordField;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.control.ScrollPane;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
@@ -53,8 +59,9 @@ public class GameClient extends Application {
     private String serverHost; // Thêm biến động để lưu địa chỉ server
 
     private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private WireReader reader;
+    private OutputStream writer;
+    private boolean binaryProtocol; // đã thỏa thuận dùng BinaryProtocol với server
     private Stage primaryStage;
 
     // UI Components
@@ -64,6 +71,17 @@ public class GameClient extends Application {
     private VBox gamePlayPane;
     private VBox gameLobbyPane;
     private VBox leaderboardPane; // Thêm VBox cho leaderboard
+    private Label myRankLabel; // Hạng của mình, điền khi nhận RANK
+
+    // Lịch sử đấu tải theo trang khi cuộn (con trỏ null = đã hết)
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private TableView<MatchHistoryEntry> historyTable;
+    private String historyCursor;
+    private boolean historyLoading;
+    private Label historyTotalLabel;
+    private Label historyWinLabel;
+    private Label historyLossLabel;
+    private Label historyDrawLabel;
 
     // Game state
     private String currentUsername;
@@ -76,6 +94,13 @@ public class GameClient extends Application {
     private Label timerLabel;
     private Label opponentScoreLabel;
     private Pane grainGrid;
+    // Khu vực bàn chơi. Bàn tới SCATTER_MAX_GRAINS hạt được rải ngẫu nhiên như cũ; bàn lớn hơn
+    // (chế độ sự kiện) xếp mỗi hạt vào một ô lưới và cuộn dọc nếu không vừa
+    private static final double GRID_WIDTH = 1000;
+    private static final double GRID_HEIGHT = 470;
+    private static final double GRAIN_SIZE = 80;
+    private static final double MIN_GRAIN_CELL = 28;
+    private static final int SCATTER_MAX_GRAINS = 100;
     private Timer gameTimer;
 
     // Buff/Debuff inventory
@@ -90,6 +115,8 @@ public class GameClient extends Application {
     // Online users
     private ListView<String> userListView;
     private Map<String, UserInfo> onlineUsers;
+    // Phiên bản presence đã áp dụng, -1 = chưa có ảnh chụp (bỏ qua delta cho tới khi có)
+    private long presenceVersion = -1;
     private Map<String, ChatWindow> openChatWindows = new HashMap<>();
 
     // Lobby chat components
@@ -121,8 +148,9 @@ public class GameClient extends Application {
         try {
             this.serverHost = host;
             socket = new Socket(serverHost, SERVER_PORT);
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
+            reader = new WireReader(new BufferedInputStream(socket.getInputStream()));
+            writer = new BufferedOutputStream(socket.getOutputStream());
+            binaryProtocol = negotiateBinaryProtocol();
 
             // Bắt đầu thread để nhận message từ server
             Thread messageHandler = new Thread(this::handleServerMessages);
@@ -493,6 +521,8 @@ public class GameClient extends Application {
         instructionLabel.setStyle("-fx-font-size: 13px; -fx-text-fill: #666; -fx-font-style: italic;");
 
         userListView = new ListView<>();
+        onlineUsers.clear();
+        presenceVersion = -1;
         userListView.setPrefHeight(350);
         userListView.setStyle("-fx-font-size: 15px;");
 
@@ -570,13 +600,16 @@ public class GameClient extends Application {
         leaderboardButton.setStyle("-fx-font-size: 15px; -fx-padding: 12 25 12 25; " +
                 "-fx-background-color: linear-gradient(to bottom, #4CAF50, #388E3C); " +
                 "-fx-text-fill: white; -fx-font-weight: bold; -fx-background-radius: 10;");
-        leaderboardButton.setOnAction(e -> sendMessage("GET_LEADERBOARD"));
+        leaderboardButton.setOnAction(e -> {
+            sendMessage("GET_LEADERBOARD");
+            sendMessage("GET_RANK");
+        });
 
         Button matchHistoryButton = new Button("📜 Lịch sử đấu");
         matchHistoryButton.setStyle("-fx-font-size: 15px; -fx-padding: 12 25 12 25; " +
                 "-fx-background-color: linear-gradient(to bottom, #2196F3, #1976D2); " +
                 "-fx-text-fill: white; -fx-font-weight: bold; -fx-background-radius: 10;");
-        matchHistoryButton.setOnAction(e -> sendMessage("GET_MATCH_HISTORY"));
+        matchHistoryButton.setOnAction(e -> showMatchHistory());
 
         Button logoutButton = new Button("🚪 Đăng xuất");
         logoutButton.setStyle("-fx-font-size: 15px; -fx-padding: 12 25 12 25; " +
@@ -592,13 +625,7 @@ public class GameClient extends Application {
             // Đóng kết nối socket
             try {
                 if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                }
-                if (reader != null) {
-                    reader.close();
-                }
-                if (writer != null) {
-                    writer.close();
+                    socket.close(); // đóng luôn cả input/output stream
                 }
             } catch (IOException ex) {
                 System.err.println("Lỗi khi đóng kết nối: " + ex.getMessage());
@@ -787,7 +814,7 @@ public class GameClient extends Application {
         chatWindow.show();
     }
 
-    private void createGamePlayUI(String ricePositions) {
+    private void createGamePlayUI(long boardSeed, int totalGrains, int riceCount) {
         // Reset buff/debuff count
         buffCount = 0;
         debuffCount = 0;
@@ -829,80 +856,50 @@ public class GameClient extends Application {
         instructionLabel.setWrapText(true);
         instructionLabel.setMaxWidth(800);
 
+        // Sinh lại vị trí hạt gạo từ seed giống hệt server
+        java.util.BitSet riceIndexes = BoardLayout.rice(boardSeed, totalGrains, riceCount);
+
+        // Bàn lớn: kích thước ô để cả bàn vừa khung ngang, không nhỏ hơn MIN_GRAIN_CELL
+        boolean scatter = totalGrains <= SCATTER_MAX_GRAINS;
+        int columns = Math.max(1, (int) (GRID_WIDTH / Math.max(MIN_GRAIN_CELL, Math.sqrt(GRID_WIDTH * GRID_HEIGHT / totalGrains))));
+        double cellSize = GRID_WIDTH / columns;
+        double grainSize = scatter ? GRAIN_SIZE : Math.min(GRAIN_SIZE, cellSize * 0.9);
+        double gridHeight = scatter ? GRID_HEIGHT
+                : Math.max(GRID_HEIGHT, Math.ceil((double) totalGrains / columns) * cellSize);
+
         // Game play area
         grainGrid = new Pane();
-        grainGrid.setPrefSize(1000, 470);
-        grainGrid.setMinSize(1000, 470);
-        grainGrid.setMaxSize(1000, 470);
+        grainGrid.setPrefSize(GRID_WIDTH, gridHeight);
+        grainGrid.setMinSize(GRID_WIDTH, gridHeight);
+        grainGrid.setMaxSize(GRID_WIDTH, gridHeight);
         grainGrid.getStyleClass().add("game-grid");
 
-        // Parse rice positions
-        java.util.Set<Integer> riceIndexes = new java.util.HashSet<>();
-        if (ricePositions != null && !ricePositions.isEmpty()) {
-            String[] positions = ricePositions.split(":");
-            for (String pos : positions) {
-                try {
-                    riceIndexes.add(Integer.parseInt(pos.trim()));
-                } catch (NumberFormatException e) {
-                    // Ignore parsing errors
-                }
-            }
-        }
+        // Mỗi loại hạt chỉ đọc ảnh một lần, mọi ImageView dùng chung
+        javafx.scene.image.Image riceImage = new javafx.scene.image.Image(getClass().getResourceAsStream("/com/example/gamesocket/image/gao.png"));
+        javafx.scene.image.Image chaffImage = new javafx.scene.image.Image(getClass().getResourceAsStream("/com/example/gamesocket/image/thoc.png"));
 
-        Random random = new Random();
+        // Cách bày hạt trên màn hình cũng theo seed: hai người chơi thấy cùng một bàn
+        Random random = new Random(boardSeed);
         java.util.List<javafx.scene.Node> placedGrains = new java.util.ArrayList<>();
 
-        for (int i = 0; i < 100; i++) {
-            javafx.scene.image.ImageView grainImageView;
-            if (riceIndexes.contains(i)) {
-                grainImageView = new javafx.scene.image.ImageView(new javafx.scene.image.Image(getClass().getResourceAsStream("/com/example/gamesocket/image/gao.png")));
-            } else {
-                grainImageView = new javafx.scene.image.ImageView(new javafx.scene.image.Image(getClass().getResourceAsStream("/com/example/gamesocket/image/thoc.png")));
-            }
-            grainImageView.setFitWidth(80);
-            grainImageView.setFitHeight(80);
+        for (int i = 0; i < totalGrains; i++) {
+            javafx.scene.image.ImageView grainImageView = new javafx.scene.image.ImageView(riceIndexes.get(i) ? riceImage : chaffImage);
+            grainImageView.setFitWidth(grainSize);
+            grainImageView.setFitHeight(grainSize);
 
             grainImageView.setRotate(random.nextDouble() * 360);
 
-            int tries = 0;
-            boolean overlaps;
-            double x = 0, y = 0;
-            int maxT = 500; 
-
-            do {
-                overlaps = false;
-                x = random.nextDouble() * (grainGrid.getPrefWidth() - 80);
-                y = random.nextDouble() * (grainGrid.getPrefHeight() - 80);
-
-                javafx.geometry.Bounds localBounds = grainImageView.getBoundsInLocal();
-
-                javafx.scene.transform.Rotate rotate = new javafx.scene.transform.Rotate(grainImageView.getRotate(), 40, 40);
-
-                javafx.geometry.Bounds rotatedBounds = rotate.transform(localBounds);
-
-                javafx.geometry.BoundingBox newGrainBoundsInParent = new javafx.geometry.BoundingBox(
-                    x + rotatedBounds.getMinX(),
-                    y + rotatedBounds.getMinY(),
-                    rotatedBounds.getWidth(),
-                    rotatedBounds.getHeight()
-                );
-
-                for (javafx.scene.Node placedGrain : placedGrains) {
-                    if (placedGrain.getBoundsInParent().intersects(newGrainBoundsInParent)) {
-                        overlaps = true;
-                        break;
-                    }
-                }
-
-                tries++;
-            } while (overlaps && tries < maxT);
-
-            grainImageView.setLayoutX(x);
-            grainImageView.setLayoutY(y);
-
+            if (scatter) {
+                placeScattered(grainImageView, random, placedGrains);
+                placedGrains.add(grainImageView);
+            } else {
+                // Lệch ngẫu nhiên trong ô của mình: O(1) mỗi hạt, không cần kiểm tra chồng nhau
+                grainImageView.setLayoutX((i % columns) * cellSize + random.nextDouble() * (cellSize - grainSize));
+                grainImageView.setLayoutY((i / columns) * cellSize + random.nextDouble() * (cellSize - grainSize));
+            }
 
             final int grainIndex = i;
-            final boolean isRice = riceIndexes.contains(i);
+            final boolean isRice = riceIndexes.get(i);
 
             grainImageView.setOnMouseClicked(e -> {
                 if (currentGameId != null) {
@@ -916,7 +913,6 @@ public class GameClient extends Application {
             });
 
             grainGrid.getChildren().add(grainImageView);
-            placedGrains.add(grainImageView);
         }
 
         // Quit button - COMPACT HƠN
@@ -935,7 +931,16 @@ public class GameClient extends Application {
             }
         });
 
-        centerBox.getChildren().addAll(gameInfoLabel, infoBox, instructionLabel, grainGrid, quitButton);
+        Node boardView = grainGrid;
+        if (gridHeight > GRID_HEIGHT) {
+            ScrollPane boardScroll = new ScrollPane(grainGrid);
+            boardScroll.setHbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
+            boardScroll.setPrefViewportWidth(GRID_WIDTH);
+            boardScroll.setPrefViewportHeight(GRID_HEIGHT);
+            boardView = boardScroll;
+        }
+
+        centerBox.getChildren().addAll(gameInfoLabel, infoBox, instructionLabel, boardView, quitButton);
         gameLayout.setCenter(centerBox);
 
         // RIGHT: Item Inventory - COMPACT HƠN
@@ -1033,6 +1038,48 @@ public class GameClient extends Application {
         gamePlayPane.getStyleClass().add("root");
     }
 
+    /**
+     * Rải một hạt vào vị trí ngẫu nhiên không chồng lên các hạt đã đặt (thử tối đa 500 lần)
+     */
+    private void placeScattered(javafx.scene.image.ImageView grainImageView, Random random,
+                                java.util.List<javafx.scene.Node> placedGrains) {
+        int tries = 0;
+        boolean overlaps;
+        double x = 0, y = 0;
+        int maxT = 500;
+
+        do {
+            overlaps = false;
+            x = random.nextDouble() * (grainGrid.getPrefWidth() - GRAIN_SIZE);
+            y = random.nextDouble() * (grainGrid.getPrefHeight() - GRAIN_SIZE);
+
+            javafx.geometry.Bounds localBounds = grainImageView.getBoundsInLocal();
+
+            javafx.scene.transform.Rotate rotate = new javafx.scene.transform.Rotate(grainImageView.getRotate(), GRAIN_SIZE / 2, GRAIN_SIZE / 2);
+
+            javafx.geometry.Bounds rotatedBounds = rotate.transform(localBounds);
+
+            javafx.geometry.BoundingBox newGrainBoundsInParent = new javafx.geometry.BoundingBox(
+                x + rotatedBounds.getMinX(),
+                y + rotatedBounds.getMinY(),
+                rotatedBounds.getWidth(),
+                rotatedBounds.getHeight()
+            );
+
+            for (javafx.scene.Node placedGrain : placedGrains) {
+                if (placedGrain.getBoundsInParent().intersects(newGrainBoundsInParent)) {
+                    overlaps = true;
+                    break;
+                }
+            }
+
+            tries++;
+        } while (overlaps && tries < maxT);
+
+        grainImageView.setLayoutX(x);
+        grainImageView.setLayoutY(y);
+    }
+
     private void updateInventoryUI() {
         // Cập nhật label
         if (buffCountLabel != null) {
@@ -1056,12 +1103,38 @@ public class GameClient extends Application {
         }
     }
 
+    /**
+     * Đề nghị server dùng giao thức nhị phân. Server cũ không trả lời thì sau
+     * thời gian chờ client tiếp tục dùng giao thức text như trước.
+     * Tắt bằng -Dgame.client.protocol=text
+     */
+    private boolean negotiateBinaryProtocol() throws IOException {
+        if ("text".equalsIgnoreCase(System.getProperty("game.client.protocol", "binary"))) {
+            return false;
+        }
+        writer.write((BinaryProtocol.HANDSHAKE_REQUEST + "\n").getBytes(StandardCharsets.UTF_8));
+        writer.flush();
+        socket.setSoTimeout(1000);
+        try {
+            return BinaryProtocol.HANDSHAKE_ACK.equals(reader.readLine());
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
     private void handleServerMessages() {
         try {
-            String message;
-            while ((message = reader.readLine()) != null) {
-                final String msg = message;
-                Platform.runLater(() -> processServerMessage(msg));
+            if (binaryProtocol) {
+                while (reader.readFrame()) {
+                    processServerFrame(reader.buffer(), reader.length());
+                }
+            } else {
+                String message;
+                while ((message = reader.readLine()) != null) {
+                    onServerMessage(message);
+                }
             }
         } catch (IOException e) {
             System.out.println("Lỗi kết nối đến server: " + e.getMessage());
@@ -1069,6 +1142,58 @@ public class GameClient extends Application {
         }
     }
 
+    /**
+     * PING được trả lời ngay trên thread mạng để heartbeat không phụ thuộc vào UI thread,
+     * các message khác chuyển sang UI thread như cũ
+     */
+    private void onServerMessage(String message) {
+        if (message.equals("PING")) {
+            sendMessage("PONG");
+            return;
+        }
+        Platform.runLater(() -> processServerMessage(message));
+    }
+
+    /**
+     * Đọc frame nhị phân trên thread mạng; các message trong trận được đọc thẳng ra số nguyên
+     */
+    private void processServerFrame(byte[] frame, int length) {
+        switch (frame[0]) {
+            case BinaryProtocol.OP_GRAIN_RESULT: {
+                long grainIndex = BinaryProtocol.decodeVarint(frame, 1, length);
+                long type = BinaryProtocol.decodeVarint(frame, BinaryProtocol.varintEnd(grainIndex), length);
+                long score = BinaryProtocol.decodeVarint(frame, BinaryProtocol.varintEnd(type), length);
+                int index = BinaryProtocol.varintValue(grainIndex);
+                String grainType = BinaryProtocol.RESULT_TYPES[BinaryProtocol.varintValue(type)];
+                int newScore = BinaryProtocol.varintValue(score);
+                Platform.runLater(() -> handleGrainResult(index, grainType, newScore));
+                break;
+            }
+            case BinaryProtocol.OP_OPPONENT_GRAIN_CLICK: {
+                long grainIndex = BinaryProtocol.decodeVarint(frame, 1, length);
+                long type = BinaryProtocol.decodeVarint(frame, BinaryProtocol.varintEnd(grainIndex), length);
+                int index = BinaryProtocol.varintValue(grainIndex);
+                String grainType = BinaryProtocol.RESULT_TYPES[BinaryProtocol.varintValue(type)];
+                Platform.runLater(() -> handleOpponentGrainClick(index, grainType));
+                break;
+            }
+            case BinaryProtocol.OP_OPPONENT_SCORE: {
+                long self = BinaryProtocol.decodeVarint(frame, 1, length);
+                long score = BinaryProtocol.decodeVarint(frame, BinaryProtocol.varintEnd(self), length);
+                boolean isSelf = BinaryProtocol.varintValue(self) == 1;
+                int newScore = BinaryProtocol.varintValue(score);
+                Platform.runLater(() -> handleOpponentScore(isSelf, newScore));
+                break;
+            }
+            case BinaryProtocol.OP_TEXT: {
+                onServerMessage(new String(frame, 1, length - 1, StandardCharsets.UTF_8));
+                break;
+            }
+            default:
+                System.out.println("Opcode không hợp lệ từ server: " + frame[0]);
+        }
+    }
+
     private void processServerMessage(String message) {
         String[] parts = message.split(":", 2);
         String command = parts[0];
@@ -1115,10 +1240,17 @@ public class GameClient extends Application {
                 });
                 break;
 
-            case "ONLINE_USERS":
+            case "PRESENCE_SNAPSHOT":
                 updateOnlineUsers(data);
                 break;
 
+            case "USER_JOINED":
+            case "USER_LEFT":
+            case "USER_STATUS":
+            case "USER_SCORE":
+                applyPresenceDelta(command, data);
+                break;
+
             case "GAME_INVITATION":
                 handleGameInvitation(data);
                 break;
@@ -1203,8 +1335,11 @@ public class GameClient extends Application {
             case "LEADERBOARD":
                 showLeaderboard(data);
                 break;
-            case "MATCH_HISTORY":
-                showMatchHistory(data);
+            case "RANK":
+                showMyRank(data);
+                break;
+            case "MATCH_HISTORY_PAGE":
+                onMatchHistoryPage(data);
                 break;
             case "LOBBY_READY":
                 String[] lobbyData = data.split(":", 3);
@@ -1263,6 +1398,9 @@ public class GameClient extends Application {
         }
     }
 
+    /**
+     * Áp dụng ảnh chụp danh sách online: "version:user,score,status;..."
+     */
     private void updateOnlineUsers(String data) {
         // Add null check to prevent NullPointerException
         if (userListView == null) {
@@ -1270,34 +1408,93 @@ public class GameClient extends Application {
             return;
         }
 
+        String[] versionAndList = data.split(":", 2);
+        presenceVersion = Long.parseLong(versionAndList[0]);
         onlineUsers.clear();
         userListView.getItems().clear();
 
-        if (!data.isEmpty()) {
-            String[] users = data.split(";");
+        if (versionAndList.length > 1 && !versionAndList[1].isEmpty()) {
+            String[] users = versionAndList[1].split(";");
             for (String userInfo : users) {
                 if (!userInfo.trim().isEmpty()) {
                     String[] parts = userInfo.split(",");
                     if (parts.length >= 3) {
-                        String username = parts[0];
-                        int totalScore = Integer.parseInt(parts[1]);
-                        String status = parts[2];
-
-                        onlineUsers.put(username, new UserInfo(username, totalScore, status));
-
-                        String displayText = username + " - Điểm: " + totalScore;
-                        if (status.equals("BUSY")) {
-                            displayText += " (BUSY)";
-                        }
-                        if (!username.equals(currentUsername)) {
-                            userListView.getItems().add(displayText);
-                        }
+                        putOnlineUser(new UserInfo(parts[0], Integer.parseInt(parts[1]), parts[2]));
                     }
                 }
             }
         }
     }
 
+    /**
+     * Áp dụng một thay đổi "version:..." lên danh sách hiện có, chỉ sửa đúng dòng của user đó.
+     * Phiên bản bị hụt (server đã bỏ bớt delta) thì xin lại ảnh chụp.
+     */
+    private void applyPresenceDelta(String command, String data) {
+        if (userListView == null || presenceVersion < 0) {
+            return;
+        }
+        String[] versionAndBody = data.split(":", 2);
+        long version = Long.parseLong(versionAndBody[0]);
+        if (version <= presenceVersion) {
+            // Đã nằm trong ảnh chụp mới hơn
+            return;
+        }
+        if (version != presenceVersion + 1 || versionAndBody.length < 2) {
+            presenceVersion = -1;
+            sendMessage("GET_ONLINE_USERS");
+            return;
+        }
+        presenceVersion = version;
+
+        String[] parts = versionAndBody[1].split(",");
+        String username = parts[0];
+        UserInfo existing = onlineUsers.get(username);
+        switch (command) {
+            case "USER_JOINED":
+                if (parts.length >= 3) {
+                    removeOnlineUser(username);
+                    putOnlineUser(new UserInfo(username, Integer.parseInt(parts[1]), parts[2]));
+                }
+                break;
+            case "USER_LEFT":
+                removeOnlineUser(username);
+                break;
+            case "USER_STATUS":
+                if (existing != null && parts.length >= 2) {
+                    replaceOnlineUser(existing, new UserInfo(username, existing.totalScore, parts[1]));
+                }
+                break;
+            case "USER_SCORE":
+                if (existing != null && parts.length >= 2) {
+                    replaceOnlineUser(existing, new UserInfo(username, Integer.parseInt(parts[1]), existing.status));
+                }
+                break;
+        }
+    }
+
+    private void putOnlineUser(UserInfo user) {
+        onlineUsers.put(user.username, user);
+        if (!user.username.equals(currentUsername)) {
+            userListView.getItems().add(user.displayText());
+        }
+    }
+
+    private void removeOnlineUser(String username) {
+        UserInfo removed = onlineUsers.remove(username);
+        if (removed != null) {
+            userListView.getItems().remove(removed.displayText());
+        }
+    }
+
+    private void replaceOnlineUser(UserInfo oldUser, UserInfo newUser) {
+        onlineUsers.put(newUser.username, newUser);
+        int row = userListView.getItems().indexOf(oldUser.displayText());
+        if (row >= 0) {
+            userListView.getItems().set(row, newUser.displayText());
+        }
+    }
+
     private void handleGameInvitation(String inviter) {
         Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
         alert.setTitle("Lời mời chơi game");
@@ -1318,13 +1515,12 @@ public class GameClient extends Application {
         opponent = parts[1];
         int gameDuration = Integer.parseInt(parts[2]);
 
-        // Lấy thông tin vị trí các hạt gạo (nếu có)
-        String ricePositions = "";
-        if (parts.length > 3) {
-            ricePositions = parts[3];
-        }
+        // Bàn chơi: seed, tổng số hạt, số hạt gạo
+        long boardSeed = Long.parseLong(parts[3]);
+        int totalGrains = Integer.parseInt(parts[4]);
+        int riceCount = Integer.parseInt(parts[5]);
 
-        createGamePlayUI(ricePositions);
+        createGamePlayUI(boardSeed, totalGrains, riceCount);
         Scene gameScene = new Scene(gamePlayPane, SCENE_WIDTH, SCENE_HEIGHT);
         gameScene.getStylesheets().add(getClass().getResource("/com/example/gamesocket/styles/styles.css").toExternalForm());
         primaryStage.setScene(gameScene);
@@ -1356,9 +1552,11 @@ public class GameClient extends Application {
 
     private void handleGrainResult(String data) {
         String[] parts = data.split(",");
-        int grainIndex = Integer.parseInt(parts[0]);
-        String grainType = parts[1];
-        currentScore = Integer.parseInt(parts[2]);
+        handleGrainResult(Integer.parseInt(parts[0]), parts[1], Integer.parseInt(parts[2]));
+    }
+
+    private void handleGrainResult(int grainIndex, String grainType, int newScore) {
+        currentScore = newScore;
 
         javafx.scene.image.ImageView grain = (javafx.scene.image.ImageView) grainGrid.getChildren().get(grainIndex);
 
@@ -1429,10 +1627,11 @@ public class GameClient extends Application {
 
     private void handleOpponentScore(String data) {
         String[] parts = data.split(",");
-        String playerName = parts[0];
-        int score = Integer.parseInt(parts[1]);
+        handleOpponentScore(parts[0].equals(currentUsername), Integer.parseInt(parts[1]));
+    }
 
-        if (playerName.equals(currentUsername)) {
+    private void handleOpponentScore(boolean isSelf, int score) {
+        if (isSelf) {
             currentScore = score;
             scoreLabel.setText("🌾 Điểm của bạn: " + currentScore);
         } else {
@@ -1445,9 +1644,10 @@ public class GameClient extends Application {
      */
     private void handleOpponentGrainClick(String data) {
         String[] parts = data.split(",");
-        int grainIndex = Integer.parseInt(parts[0]);
-        String grainType = parts[1];
+        handleOpponentGrainClick(Integer.parseInt(parts[0]), parts[1]);
+    }
 
+    private void handleOpponentGrainClick(int grainIndex, String grainType) {
         // Lấy hạt tương ứng từ grid
         javafx.scene.image.ImageView grain = (javafx.scene.image.ImageView) grainGrid.getChildren().get(grainIndex);
 
@@ -1542,7 +1742,7 @@ public class GameClient extends Application {
         public String getPlayedAt() { return playedAt; }
     }
 
-    private void showMatchHistory(String data) {
+    private void showMatchHistory() {
         VBox historyPane = new VBox(15);
         historyPane.setPadding(new Insets(20));
         historyPane.setAlignment(Pos.CENTER);
@@ -1552,12 +1752,23 @@ public class GameClient extends Application {
         title.getStyleClass().add("title-label");
         title.setStyle("-fx-font-size: 32px; -fx-font-weight: bold;");
 
-        Label subtitle = new Label("Lịch sử 50 trận đấu gần nhất của " + currentUsername);
+        Label subtitle = new Label("Lịch sử đấu của " + currentUsername + " (cuộn xuống để xem các trận cũ hơn)");
         subtitle.setStyle("-fx-font-size: 16px; -fx-text-fill: #666; -fx-font-style: italic;");
 
         TableView<MatchHistoryEntry> tableView = new TableView<>();
         tableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
         tableView.setPrefHeight(450);
+        // Cuộn gần tới cuối bảng thì tải trang kế tiếp (ScrollBar chỉ có sau khi skin được tạo)
+        tableView.skinProperty().addListener((obs, oldSkin, newSkin) -> {
+            ScrollBar scrollBar = findVerticalScrollBar(tableView);
+            if (scrollBar != null) {
+                scrollBar.valueProperty().addListener((o, oldValue, newValue) -> {
+                    if (newValue.doubleValue() >= scrollBar.getMax() * 0.9) {
+                        requestNextHistoryPage();
+                    }
+                });
+            }
+        });
 
         TableColumn<MatchHistoryEntry, String> opponentCol = new TableColumn<>("Đối thủ");
         opponentCol.setCellValueFactory(new PropertyValueFactory<>("opponent"));
@@ -1634,51 +1845,25 @@ public class GameClient extends Application {
 
         tableView.getColumns().addAll(opponentCol, resultCol, myScoreCol, oppScoreCol, durationCol, dateCol);
 
-        if (!data.isEmpty()) {
-            String[] matches = data.split(";");
-            for (String matchInfo : matches) {
-                if (!matchInfo.trim().isEmpty()) {
-                    String[] m = matchInfo.split(",");
-                    if (m.length >= 7) {
-                        tableView.getItems().add(new MatchHistoryEntry(
-                            m[0], // gameId
-                            m[1], // opponent
-                            m[2], // result
-                            Integer.parseInt(m[3]), // myScore
-                            Integer.parseInt(m[4]), // opponentScore
-                            m[5], // duration
-                            m[6]  // playedAt
-                        ));
-                    }
-                }
-            }
-        }
-
-        // Thống kê tổng quan
-        int totalMatches = tableView.getItems().size();
-        int wins = (int) tableView.getItems().stream().filter(e -> "WIN".equals(e.getResult())).count();
-        int losses = (int) tableView.getItems().stream().filter(e -> "LOSS".equals(e.getResult())).count();
-        int draws = (int) tableView.getItems().stream().filter(e -> "DRAW".equals(e.getResult())).count();
-
         HBox statsBox = new HBox(30);
         statsBox.setAlignment(Pos.CENTER);
         statsBox.setStyle("-fx-background-color: linear-gradient(to right, #FFF8DC, #F0E68C); " +
                 "-fx-background-radius: 10; -fx-padding: 15; -fx-border-color: #DAA520; " +
                 "-fx-border-width: 2; -fx-border-radius: 10;");
 
-        Label totalLabel = new Label("📊 Tổng: " + totalMatches + " trận");
-        totalLabel.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
+        historyTotalLabel = new Label();
+        historyTotalLabel.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
 
-        Label winLabel = new Label("✅ Thắng: " + wins);
-        winLabel.setStyle("-fx-font-size: 16px; -fx-font-weight: bold; -fx-text-fill: #27ae60;");
+        historyWinLabel = new Label();
+        historyWinLabel.setStyle("-fx-font-size: 16px; -fx-font-weight: bold; -fx-text-fill: #27ae60;");
 
-        Label lossLabel = new Label("❌ Thua: " + losses);
-        lossLabel.setStyle("-fx-font-size: 16px; -fx-font-weight: bold; -fx-text-fill: #e74c3c;");
+        historyLossLabel = new Label();
+        historyLossLabel.setStyle("-fx-font-size: 16px; -fx-font-weight: bold; -fx-text-fill: #e74c3c;");
 
-        Label drawLabel = new Label("🤝 Hòa: " + draws);
-        drawLabel.setStyle("-fx-font-size: 16px; -fx-font-weight: bold; -fx-text-fill: #f39c12;");
+        historyDrawLabel = new Label();
+        historyDrawLabel.setStyle("-fx-font-size: 16px; -fx-font-weight: bold; -fx-text-fill: #f39c12;");
 
-        statsBox.getChildren().addAll(totalLabel, winLabel, lossLabel, drawLabel);
+        statsBox.getChildren().addAll(historyTotalLabel, historyWinLabel, historyLossLabel, historyDrawLabel);
 
         Button backButton = new Button("🔙 Quay lại Menu Chính");
         backButton.setStyle("-fx-font-size: 15px; -fx-padding: 12 25 12 25; " +
@@ -1691,6 +1876,83 @@ public class GameClient extends Application {
         Scene scene = new Scene(historyPane, SCENE_WIDTH, SCENE_HEIGHT);
         scene.getStylesheets().add(getClass().getResource("/com/example/gamesocket/styles/styles.css").toExternalForm());
         primaryStage.setScene(scene);
+
+        historyTable = tableView;
+        historyCursor = null;
+        historyLoading = true;
+        updateHistoryStats();
+        sendMessage("GET_MATCH_HISTORY_PAGE:" + HISTORY_PAGE_SIZE);
+    }
+
+    private static ScrollBar findVerticalScrollBar(TableView<?> tableView) {
+        for (Node node : tableView.lookupAll(".scroll-bar")) {
+            if (node instanceof ScrollBar scrollBar && scrollBar.getOrientation() == Orientation.VERTICAL) {
+                return scrollBar;
+            }
+        }
+        return null;
+    }
+
+    private void requestNextHistoryPage() {
+        if (historyTable == null || historyLoading || historyCursor == null) {
+            return;
+        }
+        historyLoading = true;
+        sendMessage("GET_MATCH_HISTORY_PAGE:" + HISTORY_PAGE_SIZE + ":" + historyCursor);
+    }
+
+    /**
+     * MATCH_HISTORY_PAGE:nextCursor:gameId,opponent,result,myScore,oppScore,duration,playedAt;...
+     */
+    private void onMatchHistoryPage(String data) {
+        if (historyTable == null) {
+            // Đã rời màn hình lịch sử
+            return;
+        }
+        String[] parts = data.split(":", 2);
+        historyCursor = "-".equals(parts[0]) ? null : parts[0];
+        historyLoading = false;
+
+        if (parts.length == 2 && !parts[1].isEmpty()) {
+            String[] matches = parts[1].split(";");
+            for (String matchInfo : matches) {
+                if (!matchInfo.trim().isEmpty()) {
+                    String[] m = matchInfo.split(",");
+                    if (m.length >= 7) {
+                        historyTable.getItems().add(new MatchHistoryEntry(
+                            m[0], // gameId
+                            m[1], // opponent
+                            m[2], // result
+                            Integer.parseInt(m[3]), // myScore
+                            Integer.parseInt(m[4]), // opponentScore
+                            m[5], // duration
+                            m[6]  // playedAt
+                        ));
+                    }
+                }
+            }
+        }
+        updateHistoryStats();
+
+        // Trang đầu chưa lấp đầy bảng thì không cuộn được, tải tiếp luôn
+        ScrollBar scrollBar = findVerticalScrollBar(historyTable);
+        if (scrollBar == null || !scrollBar.isVisible()) {
+            requestNextHistoryPage();
+        }
+    }
+
+    private void updateHistoryStats() {
+        // Thống kê trên các trận đã tải
+        int totalMatches = historyTable.getItems().size();
+        int wins = (int) historyTable.getItems().stream().filter(e -> "WIN".equals(e.getResult())).count();
+        int losses = (int) historyTable.getItems().stream().filter(e -> "LOSS".equals(e.getResult())).count();
+        int draws = (int) historyTable.getItems().stream().filter(e -> "DRAW".equals(e.getResult())).count();
+        String more = historyCursor != null ? "+" : "";
+
+        historyTotalLabel.setText("📊 Tổng: " + totalMatches + more + " trận");
+        historyWinLabel.setText("✅ Thắng: " + wins);
+        historyLossLabel.setText("❌ Thua: " + losses);
+        historyDrawLabel.setText("🤝 Hòa: " + draws);
     }
 
     private void showLeaderboard(String data) {
@@ -1740,14 +2002,33 @@ public class GameClient extends Application {
         Button backButton = new Button("Quay lại Menu Chính");
         backButton.setOnAction(e -> backToMainMenu());
 
-        leaderboardPane.getChildren().addAll(title, tableView, backButton);
+        myRankLabel = new Label("Hạng của bạn: ...");
+
+        leaderboardPane.getChildren().addAll(title, tableView, myRankLabel, backButton);
 
         Scene scene = new Scene(leaderboardPane, SCENE_WIDTH, SCENE_HEIGHT);
         scene.getStylesheets().add(getClass().getResource("/com/example/gamesocket/styles/styles.css").toExternalForm());
         primaryStage.setScene(scene);
     }
 
+    /**
+     * RANK:user,rank,totalScore,gamesPlayed,gamesWon,winRate (rank = 0 nếu chưa chơi trận nào)
+     */
+    private void showMyRank(String data) {
+        if (myRankLabel == null) {
+            return;
+        }
+        String[] p = data.split(",");
+        if (p.length < 2 || "0".equals(p[1])) {
+            myRankLabel.setText("Hạng của bạn: chưa có (hãy chơi ít nhất một trận)");
+        } else if (p.length >= 6) {
+            myRankLabel.setText("Hạng của bạn: #" + p[1] + " - " + p[2] + " điểm, thắng " + p[4] + "/" + p[3]
+                    + " (" + p[5] + "%)");
+        }
+    }
+
     private void backToMainMenu() {
+        historyTable = null;
         currentGameId = null;
         opponent = null;
         currentScore = 0;
@@ -1797,9 +2078,18 @@ public class GameClient extends Application {
         }
     }
 
-    private void sendMessage(String message) {
+    private synchronized void sendMessage(String message) {
         if (writer != null) {
-            writer.println(message);
+            try {
+                if (binaryProtocol) {
+                    writer.write(BinaryProtocol.encodeClientMessage(message));
+                } else {
+                    writer.write((message + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                writer.flush();
+            } catch (IOException e) {
+                System.out.println("Lỗi gửi message đến server: " + e.getMessage());
+            }
         }
     }
 
@@ -1916,5 +2206,13 @@ public class GameClient extends Application {
             this.totalScore = totalScore;
             this.status = status;
         }
+
+        String displayText() {
+            String displayText = username + " - Điểm: " + totalScore;
+            if (status.equals("BUSY")) {
+                displayText += " (BUSY)";
+            }
+            return displayText;
+        }
     }
 }
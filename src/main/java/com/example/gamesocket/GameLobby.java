@@ -8,11 +8,14 @@ public class GameLobby {
     private String host;
     private List<String> players;
     private GameServer server;
+    // Bàn chơi của trận sẽ bắt đầu từ phòng này (người mời chọn, mặc định là bàn của server)
+    private BoardLayout.Params boardParams;
 
-    public GameLobby(String lobbyId, String host, GameServer server) {
+    public GameLobby(String lobbyId, String host, GameServer server, BoardLayout.Params boardParams) {
         this.lobbyId = lobbyId;
         this.host = host;
         this.server = server;
+        this.boardParams = boardParams;
         this.players = new ArrayList<>();
         this.players.add(host);
     }
@@ -39,30 +42,27 @@ public class GameLobby {
         return lobbyId;
     }
 
+    public BoardLayout.Params getBoardParams() {
+        return boardParams;
+    }
+
     public void startLobby() {
         // Notify players that the lobby is ready
+        server.broadcastToPlayers(players, "LOBBY_READY:" + lobbyId + ":" + host + ":" + String.join(",", players));
         for (String player : players) {
             ClientHandler client = server.getOnlineClients().get(player);
             if (client != null) {
-                client.sendMessage("LOBBY_READY:" + lobbyId + ":" + host + ":" + String.join(",", players));
                 // Set lobby ID for each player
                 client.setCurrentLobbyId(lobbyId);
                 // Set inGame to true so other players can't invite them
                 client.setInGame(true);
             }
         }
-        // Broadcast updated online users to show BUSY status
-        server.broadcastOnlineUsers();
     }
 
     public void notifyPlayersUpdate() {
         // Notify all players about the updated player list
-        for (String player : players) {
-            ClientHandler client = server.getOnlineClients().get(player);
-            if (client != null) {
-                client.sendMessage("LOBBY_UPDATE:" + lobbyId + ":" + host + ":" + String.join(",", players));
-            }
-        }
+        server.broadcastToPlayers(players, "LOBBY_UPDATE:" + lobbyId + ":" + host + ":" + String.join(",", players));
     }
 
     public int getPlayerCount() {
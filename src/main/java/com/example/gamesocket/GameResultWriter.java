@@ -0,0 +1,367 @@
+package com.example.gamesocket;
+// GameResultWriter.java
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ghi kết quả trận đấu xuống GameStore ở chế độ write-behind: GameServer.endGame chỉ bỏ kết quả
+ * vào hàng đợi rồi trả về ngay, một thread nền gom nhiều kết quả ghi chung một lần saveResults
+ * (với JDBC: batch INSERT game_results + mỗi người chơi một UPDATE users đã cộng dồn).
+ *
+ * DB chậm hoặc chết: lô ghi lỗi (và kết quả đến khi hàng đợi đầy) được ghi nối vào file spill
+ * trên đĩa (fsync), rồi được ghi lại vào DB khi DB hoạt động trở lại.
+ * Khi tắt server, shutdown hook ghi nốt hàng đợi (hoặc đẩy ra file spill).
+ */
+public class GameResultWriter {
+
+    /**
+     * Kết quả một trận đấu chờ ghi. resultId là định danh duy nhất của kết quả (game ID đánh số
+     * lại từ 1 sau mỗi lần khởi động nên không dùng được): store bỏ qua kết quả đã có resultId,
+     * nhờ vậy ghi lại một lô đã ghi rồi (từ file spill) không cộng thống kê hai lần.
+     */
+    public static final class GameResult {
+        private final String resultId;
+        private final String gameId;
+        private final String player1;
+        private final String player2;
+        private final String winner;
+        private final int score1;
+        private final int score2;
+        private final int duration;
+        private final long playedAtMillis;
+
+        public GameResult(String resultId, String gameId, String player1, String player2, String winner,
+                          int score1, int score2, int duration, long playedAtMillis) {
+            this.resultId = resultId;
+            this.gameId = gameId;
+            this.player1 = player1;
+            this.player2 = player2;
+            this.winner = winner;
+            this.score1 = score1;
+            this.score2 = score2;
+            this.duration = duration;
+            this.playedAtMillis = playedAtMillis;
+        }
+
+        /**
+         * @return null với kết quả ghi trước khi có result id
+         */
+        public String getResultId() { return resultId; }
+        public String getGameId() { return gameId; }
+        public String getPlayer1() { return player1; }
+        public String getPlayer2() { return player2; }
+        public String getWinner() { return winner; }
+        public int getScore1() { return score1; }
+        public int getScore2() { return score2; }
+        public int getDuration() { return duration; }
+        public long getPlayedAtMillis() { return playedAtMillis; }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(resultId);
+            out.writeUTF(gameId);
+            out.writeUTF(player1);
+            out.writeUTF(player2);
+            out.writeUTF(winner);
+            out.writeInt(score1);
+            out.writeInt(score2);
+            out.writeInt(duration);
+            out.writeLong(playedAtMillis);
+        }
+
+        static GameResult readFrom(DataInputStream in) throws IOException {
+            return readFrom(in, in.readUTF());
+        }
+
+        /**
+         * Đọc phần sau resultId (bản ghi cũ không có resultId thì truyền null)
+         */
+        static GameResult readFrom(DataInputStream in, String resultId) throws IOException {
+            return new GameResult(resultId, in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                    in.readInt(), in.readInt(), in.readInt(), in.readLong());
+        }
+    }
+
+    /**
+     * Nhận thống kê đã ghi xong của một người chơi (GameServer cập nhật cache và bảng xếp hạng)
+     */
+    @FunctionalInterface
+    public interface StatsListener {
+        void statsPersisted(String username, int games, int wins, int score);
+    }
+
+    /**
+     * Thống kê cộng dồn của một người chơi trong một lô
+     */
+    static final class StatsDelta {
+        int games;
+        int wins;
+        int score;
+    }
+
+    private final GameStore store;
+    private final StatsListener statsListener;
+    private final BlockingQueue<GameResult> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long retryIntervalNanos;
+    private final File spillFile;
+    private final Thread worker;
+    // ReentrantLock thay cho synchronized: ghi file dưới lock không ghim virtual thread
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private volatile boolean running = true;
+    private long lastFailureNanos;
+
+    // Thống kê
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    public GameResultWriter(GameStore store, StatsListener statsListener) {
+        this.store = store;
+        this.statsListener = statsListener;
+        this.queue = new ArrayBlockingQueue<>(ServerConfig.resultQueueCapacity());
+        this.batchSize = ServerConfig.resultBatchSize();
+        this.flushIntervalMillis = ServerConfig.resultFlushIntervalMillis();
+        this.retryIntervalNanos = TimeUnit.SECONDS.toNanos(ServerConfig.resultRetryIntervalSeconds());
+        this.spillFile = new File(ServerConfig.resultSpillFile());
+
+        worker = new Thread(this::runWorker, "game-result-writer");
+        worker.setDaemon(true);
+    }
+
+    public void start() {
+        worker.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "game-result-drain"));
+    }
+
+    /**
+     * Đưa kết quả vào hàng đợi ghi. Không bao giờ block: hàng đợi đầy thì ghi thẳng ra file spill.
+     */
+    public void submit(GameResult result) {
+        submitted.increment();
+        if (!running || !queue.offer(result)) {
+            spill(List.of(result));
+        }
+    }
+
+    private void runWorker() {
+        List<GameResult> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                GameResult first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    writeOrSpill(batch);
+                    batch.clear();
+                }
+                replaySpillIfDue();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // Không để một lỗi bất ngờ giết thread ghi
+                e.printStackTrace();
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeOrSpill(List<GameResult> batch) {
+        if (isBackingOff()) {
+            // DB vừa lỗi: không thử lại từng lô, cất ra đĩa và đợi lần thử kế tiếp
+            spill(batch);
+            return;
+        }
+        try {
+            persist(batch);
+        } catch (GameStore.StoreException e) {
+            System.err.println("Failed to persist " + batch.size() + " game results, spilling to disk: " + e.getMessage());
+            lastFailureNanos = System.nanoTime();
+            spill(batch);
+        }
+    }
+
+    private boolean isBackingOff() {
+        return lastFailureNanos != 0 && System.nanoTime() - lastFailureNanos < retryIntervalNanos;
+    }
+
+    /**
+     * Ghi một lô xuống store (một giao dịch), rồi cập nhật cache thống kê
+     */
+    private void persist(List<GameResult> batch) throws GameStore.StoreException {
+        List<GameResult> stored = store.saveResults(batch);
+
+        persisted.add(stored.size());
+        duplicates.add(batch.size() - stored.size());
+        batches.increment();
+        lastFailureNanos = 0;
+        // Store đã cập nhật: sửa luôn cache thống kê (và presence) thay vì đọc lại.
+        // Chỉ tính các kết quả vừa ghi, kết quả đã có sẵn trong store thì đã được tính rồi
+        for (Map.Entry<String, StatsDelta> entry : statsDeltas(stored).entrySet()) {
+            StatsDelta delta = entry.getValue();
+            statsListener.statsPersisted(entry.getKey(), delta.games, delta.wins, delta.score);
+        }
+    }
+
+    /**
+     * Gộp thống kê của một lô theo người chơi (mỗi người một dòng cập nhật)
+     */
+    static Map<String, StatsDelta> statsDeltas(List<GameResult> batch) {
+        Map<String, StatsDelta> deltas = new LinkedHashMap<>();
+        for (GameResult result : batch) {
+            addDelta(deltas, result.player1, result.winner.equals(result.player1), result.score1);
+            addDelta(deltas, result.player2, result.winner.equals(result.player2), result.score2);
+        }
+        return deltas;
+    }
+
+    private static void addDelta(Map<String, StatsDelta> deltas, String username, boolean won, int score) {
+        StatsDelta delta = deltas.computeIfAbsent(username, name -> new StatsDelta());
+        delta.games++;
+        delta.wins += won ? 1 : 0;
+        delta.score += score;
+    }
+
+    /**
+     * Ghi nối các kết quả vào file spill và fsync trước khi trả về
+     */
+    private void spill(List<GameResult> results) {
+        try {
+            writeResults(spillFile, results, true);
+            spilled.add(results.size());
+        } catch (IOException e) {
+            // Hết đường lưu: ít nhất để lại dấu vết trong log
+            System.err.println("Failed to spill " + results.size() + " game results to " + spillFile + ": " + e);
+            e.printStackTrace();
+        }
+    }
+
+    private void writeResults(File target, List<GameResult> results, boolean append) throws IOException {
+        spillLock.lock();
+        try (FileOutputStream file = new FileOutputStream(target, append)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            for (GameResult result : results) {
+                result.writeTo(out);
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    /**
+     * Nếu có file spill và DB không trong thời gian chờ thử lại thì ghi nó vào DB.
+     * File được đổi tên trước khi đọc để các lần spill mới ghi sang file khác.
+     */
+    private void replaySpillIfDue() {
+        if (isBackingOff() || !spillFile.exists()) {
+            return;
+        }
+        File replaying = new File(spillFile.getPath() + ".replay");
+        spillLock.lock();
+        try {
+            if (!replaying.exists() && !spillFile.renameTo(replaying)) {
+                return;
+            }
+        } finally {
+            spillLock.unlock();
+        }
+
+        List<GameResult> results = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(replaying)))) {
+            while (true) {
+                results.add(GameResult.readFrom(in));
+            }
+        } catch (EOFException e) {
+            // Hết file (bản ghi cuối bị cắt dở do crash thì bỏ qua)
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        int done = 0;
+        try {
+            while (done < results.size()) {
+                int end = Math.min(results.size(), done + batchSize);
+                persist(results.subList(done, end));
+                done = end;
+            }
+        } catch (GameStore.StoreException e) {
+            lastFailureNanos = System.nanoTime();
+            System.err.println("Replaying spilled game results failed, will retry: " + e.getMessage());
+            // Các lô đầu có thể đã ghi xong: chỉ giữ lại phần chưa ghi
+            rewriteReplayFile(replaying, results.subList(done, results.size()));
+            return;
+        }
+        replayed.add(results.size());
+        if (!replaying.delete()) {
+            System.err.println("Could not delete " + replaying);
+        }
+        System.out.println("Replayed " + results.size() + " spilled game results");
+    }
+
+    private void rewriteReplayFile(File replaying, List<GameResult> remaining) {
+        try {
+            writeResults(replaying, remaining, false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Shutdown hook: ngừng nhận, ghi nốt hàng đợi vào DB (lỗi thì ra file spill).
+     * Worker không bị interrupt mà tự dừng sau lô đang ghi (poll có timeout): interrupt giữa lúc
+     * fsync làm FileChannel bị đóng sau khi dữ liệu đã ghi, và lô đó bị spill rồi ghi lại lần nữa.
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<GameResult> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (remaining.isEmpty()) {
+            return;
+        }
+        System.out.println("Draining " + remaining.size() + " pending game results");
+        lastFailureNanos = 0;
+        for (int i = 0; i < remaining.size(); i += batchSize) {
+            writeOrSpill(remaining.subList(i, Math.min(remaining.size(), i + batchSize)));
+        }
+    }
+
+    public String summary() {
+        long batchCount = batches.sum();
+        long avgBatch = batchCount == 0 ? 0 : persisted.sum() / batchCount;
+        return "Game results: " + submitted.sum() + " submitted, " + persisted.sum() + " persisted in "
+                + batchCount + " batches (avg " + avgBatch + "), " + queue.size() + " queued, "
+                + spilled.sum() + " spilled, " + replayed.sum() + " replayed from disk, "
+                + duplicates.sum() + " duplicates skipped";
+    }
+}
@@ -3,101 +3,192 @@ package com.example.gamesocket;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
+import java.io.File;
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class GameServer {
     private static final int PORT = 8888;
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/rice_game";
-    private static final String DB_USER = "root";
-    private static final String DB_PASSWORD = "123456";
+    private static final int HISTORY_LIMIT = 50;
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private static final int HISTORY_MAX_PAGE_SIZE = 100;
 
     private ServerSocket serverSocket;
+    private NioServer nioServer;
+    private PinningMonitor pinningMonitor;
+    private ScheduledExecutorService statsReporter;
     private Map<String, ClientHandler> onlineClients;
     private Map<String, GameSession> activeSessions;
     private Map<String, GameLobby> activeLobbies; // Add this line
     private ExecutorService executor;
     private AtomicInteger gameIdCounter;
+    // Một timing wheel dùng chung cho mọi hẹn giờ: heartbeat, idle timeout, hết giờ trận đấu, debounce presence
+    private final TimingWheel timers = new TimingWheel("server-timer", 100, 512);
+    // Sự kiện của mỗi trận chạy tuần tự trên một shard thread (theo hash của game ID)
+    private final SessionShards sessionShards = new SessionShards(ServerConfig.sessionShards());
+    private final LongAdder idleConnectionsReaped = new LongAdder();
+    private final PresenceTracker presence;
+    private final GameStore store = createStore();
+    private final GameResultWriter resultWriter;
+    private final UserStatsCache userStats;
+    private final Leaderboard leaderboard = new Leaderboard();
+    // Tham số bàn chơi cho các trận mới (bàn cổ điển hoặc bàn lớn của chế độ sự kiện)
+    private final BoardLayout.Params boardParams = ServerConfig.boardParams();
+    // Bàn riêng của các lời mời đang chờ trả lời, theo "người mời:người được mời"
+    private final Map<String, BoardLayout.Params> invitationBoards = new ConcurrentHashMap<>();
 
     public GameServer() {
         onlineClients = new ConcurrentHashMap<>();
         activeSessions = new ConcurrentHashMap<>();
         activeLobbies = new ConcurrentHashMap<>(); // Add this line
-        executor = Executors.newCachedThreadPool();
+        if (ServerConfig.connectionMode() == ServerConfig.ConnectionMode.VIRTUAL) {
+            // Mỗi client một virtual thread: readLine() bị block không còn giữ platform thread
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("client-", 0).factory());
+        } else {
+            // Chế độ blocking: thread đọc/ghi của client; chế độ NIO: lệnh phải chờ DB/file
+            executor = Executors.newCachedThreadPool();
+        }
+        // Cache nạp lại bản ghi quá hạn trên executor; điểm đổi thì presence phát lại
+        userStats = new UserStatsCache(this::loadUserStats, ServerConfig.userStatsTtlSeconds(), executor,
+                this::onStatsRefreshed);
+        presence = new PresenceTracker(timers, onlineClients.values(), userStats::getTotalScore);
         gameIdCounter = new AtomicInteger(1);
+        // Tạo sau mọi field khác: writer thread gọi applyStatsToCache (userStats, leaderboard, presence)
+        resultWriter = new GameResultWriter(store, this::applyStatsToCache);
         initializeDatabase();
+        loadLeaderboard();
+        resultWriter.start();
+    }
+
+    /**
+     * Chọn nơi lưu dữ liệu theo -Dgame.server.store
+     */
+    private static GameStore createStore() {
+        if (ServerConfig.storeType() == ServerConfig.StoreType.FILE) {
+            return new FileGameStore(new File(ServerConfig.storeFile()));
+        }
+        return new JdbcGameStore(new ConnectionPool(ServerConfig.dbUrl(), ServerConfig.dbUser(), ServerConfig.dbPassword(),
+                ServerConfig.dbPoolSize(), ServerConfig.dbAcquireTimeoutMillis(),
+                ServerConfig.dbMaxLifetimeSeconds(), ServerConfig.dbValidationIntervalSeconds(),
+                ServerConfig.dbStatementCacheSize()));
     }
 
     private void initializeDatabase() {
         try {
-            Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-
-            // Tạo bảng users
-            String createUsersTable = """
-                CREATE TABLE IF NOT EXISTS users (
-                    id INT PRIMARY KEY AUTO_INCREMENT,
-                    username VARCHAR(50) UNIQUE NOT NULL,
-                    password VARCHAR(100) NOT NULL,
-                    total_score INT DEFAULT 0,
-                    games_played INT DEFAULT 0,
-                    games_won INT DEFAULT 0,
-                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-                )
-            """;
-
-            // Tạo bảng game_results
-            String createGameResultsTable = """
-                CREATE TABLE IF NOT EXISTS game_results (
-                    id INT PRIMARY KEY AUTO_INCREMENT,
-                    game_id VARCHAR(50) NOT NULL,
-                    player1 VARCHAR(50) NOT NULL,
-                    player2 VARCHAR(50) NOT NULL,
-                    winner VARCHAR(50),
-                    player1_score INT DEFAULT 0,
-                    player2_score INT DEFAULT 0,
-                    duration_seconds INT DEFAULT 0,
-                    played_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-                )
-            """;
-
-            Statement stmt = conn.createStatement();
-            stmt.execute(createUsersTable);
-            stmt.execute(createGameResultsTable);
-
-            conn.close();
+            store.open();
             System.out.println("Database initialized successfully");
-        } catch (SQLException e) {
+        } catch (GameStore.StoreException e) {
             e.printStackTrace();
         }
     }
 
     public void start() {
+        startStatsReporter();
+
+        if (ServerConfig.connectionMode() == ServerConfig.ConnectionMode.NIO) {
+            startNio();
+            return;
+        }
+
+        if (ServerConfig.connectionMode() == ServerConfig.ConnectionMode.VIRTUAL
+                && ServerConfig.pinningReportEnabled()) {
+            pinningMonitor = new PinningMonitor();
+            pinningMonitor.start(ServerConfig.pinningThresholdMillis());
+        }
+
         try {
             serverSocket = new ServerSocket(PORT);
-            System.out.println("Game Server started on port " + PORT);
+            System.out.println("Game Server started on port " + PORT
+                    + " (" + ServerConfig.connectionMode().name().toLowerCase() + " mode)");
 
             while (!serverSocket.isClosed()) {
                 Socket clientSocket = serverSocket.accept();
                 ClientHandler clientHandler = new ClientHandler(clientSocket, this);
+                clientHandler.start();
                 executor.submit(clientHandler);
+                executor.submit(clientHandler::runWriter);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public synchronized void sendPrivateMessage(String sender, String recipient, String message) {
-        // Tìm ClientHandler của người nhận trong danh sách online
+    /**
+     * Chế độ NIO: vài event-loop thread phục vụ toàn bộ kết nối thay vì mỗi client một thread
+     */
+    private void startNio() {
+        try {
+            nioServer = new NioServer(this, PORT, ServerConfig.nioWorkerThreads());
+            nioServer.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void startStatsReporter() {
+        long interval = ServerConfig.statsIntervalSeconds();
+        if (interval == 0) {
+            return;
+        }
+        statsReporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "server-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        statsReporter.scheduleAtFixedRate(this::logStats, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * In các số liệu vận hành của server ra log
+     */
+    public void logStats() {
+        System.out.println("[STATS] Online users: " + onlineClients.size() + ", active games: " + activeSessions.size());
+        System.out.println("[STATS] " + OutboundBatch.summary());
+        System.out.println("[STATS] " + RateLimiter.summary());
+        System.out.println("[STATS] " + userStats.summary());
+        System.out.println("[STATS] " + presence.summary());
+        System.out.println("[STATS] " + leaderboard.summary());
+        System.out.println("[STATS] " + SharedMessage.summary());
+        System.out.println("[STATS] " + store.summary());
+        System.out.println("[STATS] " + resultWriter.summary());
+        System.out.println("[STATS] " + sessionShards.summary());
+        System.out.println("[STATS] " + timers.summary());
+        System.out.println("[STATS] Heartbeat: " + idleConnectionsReaped.sum() + " idle connections reaped");
+        if (pinningMonitor != null) {
+            System.out.println("[STATS] " + pinningMonitor.summary());
+        }
+    }
+
+    /**
+     * Thread cho các lệnh phải chờ DB/file khi chạy ở chế độ NIO (xem ClientHandler.runBlocking)
+     */
+    ExecutorService getWorkerExecutor() {
+        return executor;
+    }
+
+    TimingWheel getTimers() {
+        return timers;
+    }
+
+    SessionShards getSessionShards() {
+        return sessionShards;
+    }
+
+    void recordIdleReap() {
+        idleConnectionsReaped.increment();
+    }
+
+    public void sendPrivateMessage(String sender, String recipient, String message) {
+        // Không cần khóa: onlineClients là ConcurrentHashMap, sendMessage chỉ bỏ vào hàng đợi
         ClientHandler recipientHandler = onlineClients.get(recipient);
 
         if (recipientHandler != null) {
@@ -114,46 +205,108 @@ public class GameServer {
         }
     }
 
-    public synchronized void addClient(String username, ClientHandler handler) {
-        onlineClients.put(username, handler);
-        broadcastOnlineUsers();
-        System.out.println("User " + username + " connected. Online users: " + onlineClients.size());
-    }
-
-    public synchronized void removeClient(String username) {
-        onlineClients.remove(username);
-        broadcastOnlineUsers();
-        System.out.println("User " + username + " disconnected. Online users: " + onlineClients.size());
+    /**
+     * Đăng ký user online nếu chưa ai dùng tên này. Trả về false nếu user đã online.
+     * Kiểm tra và thêm là một thao tác nguyên tử trên ConcurrentHashMap, chỉ khóa đúng
+     * ô của username đó nên các lượt đăng nhập khác nhau không chờ nhau.
+     */
+    public boolean registerClient(String username, ClientHandler handler) {
+        // Tên đang online thì từ chối luôn, không truy vấn DB
+        if (onlineClients.containsKey(username)) {
+            return false;
+        }
+        // Nạp thống kê trước, ngoài mọi lock (truy vấn DB)
+        UserStatsCache.UserStats stats = userStats.fetch(username);
+        boolean[] registered = new boolean[1];
+        onlineClients.compute(username, (name, current) -> {
+            if (current != null) {
+                // Thua cuộc đua với một lần đăng nhập khác: giữ nguyên cache của phiên đang chạy
+                return current;
+            }
+            registered[0] = true;
+            if (stats != null) {
+                userStats.put(name, stats);
+            }
+            // Báo presence trong cùng thao tác để không lẫn thứ tự với lần logout trước của cùng user
+            presence.userJoined(name, handler.isInGame());
+            return handler;
+        });
+        if (registered[0]) {
+            System.out.println("User " + username + " connected. Online users: " + onlineClients.size());
+        }
+        return registered[0];
     }
 
-    public void broadcastOnlineUsers() {
-        String userListMessage = buildOnlineUsersMessage();
-        for (ClientHandler client : onlineClients.values()) {
-            client.sendMessage(userListMessage);
+    /**
+     * Gỡ user khỏi danh sách online, chỉ khi đúng là handler đang giữ tên đó
+     */
+    public void removeClient(String username, ClientHandler handler) {
+        boolean[] removed = new boolean[1];
+        onlineClients.computeIfPresent(username, (name, current) -> {
+            if (current != handler) {
+                return current;
+            }
+            removed[0] = true;
+            presence.userLeft(name);
+            userStats.evict(name);
+            return null;
+        });
+        if (removed[0]) {
+            // Lời mời chưa trả lời của người vừa thoát không còn dùng được
+            invitationBoards.keySet().removeIf(key -> key.startsWith(username + ":") || key.endsWith(":" + username));
+            System.out.println("User " + username + " disconnected. Online users: " + onlineClients.size());
         }
     }
 
+    /**
+     * Gửi ảnh chụp danh sách online; sau đó client chỉ nhận delta từ PresenceTracker
+     */
     public void sendOnlineUsersToClient(ClientHandler client) {
-        String userListMessage = buildOnlineUsersMessage();
-        client.sendMessage(userListMessage);
+        presence.sendSnapshot(client);
     }
 
-    private String buildOnlineUsersMessage() {
-        StringBuilder userList = new StringBuilder("ONLINE_USERS:");
-        for (Map.Entry<String, ClientHandler> entry : onlineClients.entrySet()) {
-            String username = entry.getKey();
-            ClientHandler handler = entry.getValue();
-            String status = handler.isInGame() ? "BUSY" : "FREE";
-            int totalScore = getUserTotalScore(username);
-            userList.append(username).append(",").append(totalScore).append(",").append(status).append(";");
+    /**
+     * Gửi cùng một message cho nhiều người chơi (lobby, kết quả trận): mã hóa một lần, ghi chung buffer
+     */
+    public void broadcastToPlayers(Iterable<String> players, String message) {
+        SharedMessage shared = SharedMessage.of(message);
+        try {
+            for (String player : players) {
+                ClientHandler client = onlineClients.get(player);
+                if (client != null) {
+                    client.sendShared(shared);
+                }
+            }
+        } finally {
+            shared.release();
         }
-        return userList.toString();
     }
 
-    public void handleGameInvitation(String inviter, String invited) {
+    PresenceTracker getPresence() {
+        return presence;
+    }
+
+    /**
+     * INVITE:người được mời[:số hạt] - không ghi số hạt thì chơi bàn mặc định của server
+     */
+    public void handleGameInvitation(String inviter, String request) {
+        int separator = request.indexOf(':');
+        String invited = separator < 0 ? request : request.substring(0, separator);
         ClientHandler invitedClient = onlineClients.get(invited);
         ClientHandler inviterClient = onlineClients.get(inviter);
 
+        BoardLayout.Params board = boardParams;
+        if (separator >= 0) {
+            board = parseBoard(request.substring(separator + 1));
+            if (board == null) {
+                if (inviterClient != null) {
+                    inviterClient.sendMessage("SYSTEM_MESSAGE:Số hạt không hợp lệ! Chọn từ "
+                            + BoardLayout.Params.CLASSIC.getTotalGrains() + " đến " + ServerConfig.boardMaxGrains() + ".");
+                }
+                return;
+            }
+        }
+
         if (invitedClient != null) {
             if (invitedClient.isInGame()) {
                 // Người được mời đang trong game hoặc lobby
@@ -161,7 +314,14 @@ public class GameServer {
                     inviterClient.sendMessage("SYSTEM_MESSAGE:Không thể mời " + invited + "! Họ đang bận (trong trận hoặc phòng chờ).");
                 }
             } else {
-                // Gửi lời mời
+                // Gửi lời mời; bàn được nhớ lại đến khi người được mời trả lời
+                String key = inviter + ":" + invited;
+                if (board == boardParams) {
+                    invitationBoards.remove(key);
+                } else {
+                    invitationBoards.put(key, board);
+                    invitedClient.sendMessage("SYSTEM_MESSAGE:" + inviter + " mời bạn chơi bàn " + board.getTotalGrains() + " hạt.");
+                }
                 invitedClient.sendMessage("GAME_INVITATION:" + inviter);
             }
         } else {
@@ -172,13 +332,29 @@ public class GameServer {
         }
     }
 
+    /**
+     * Bàn theo tỉ lệ cổ điển với số hạt người mời chọn, hoặc null nếu không hợp lệ
+     */
+    private static BoardLayout.Params parseBoard(String grains) {
+        try {
+            int totalGrains = Integer.parseInt(grains.trim());
+            if (totalGrains < BoardLayout.Params.CLASSIC.getTotalGrains() || totalGrains > ServerConfig.boardMaxGrains()) {
+                return null;
+            }
+            return BoardLayout.Params.scaled(totalGrains);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     public void handleInvitationResponse(String invited, String inviter, boolean accepted) {
+        BoardLayout.Params board = invitationBoards.remove(inviter + ":" + invited);
         ClientHandler inviterClient = onlineClients.get(inviter);
         if (inviterClient != null) {
             if (accepted) {
                 // Create a new lobby
                 String lobbyId = "LOBBY_" + gameIdCounter.getAndIncrement();
-                GameLobby lobby = new GameLobby(lobbyId, inviter, this);
+                GameLobby lobby = new GameLobby(lobbyId, inviter, this, board != null ? board : boardParams);
                 lobby.addPlayer(invited);
                 activeLobbies.put(lobbyId, lobby);
 
@@ -219,7 +395,7 @@ public class GameServer {
         String player1 = players.get(0);
         String player2 = players.get(1);
 
-        GameSession session = new GameSession(gameId, player1, player2, this);
+        GameSession session = new GameSession(gameId, player1, player2, this, lobby.getBoardParams());
         activeSessions.put(gameId, session);
 
         ClientHandler client1 = onlineClients.get(player1);
@@ -232,7 +408,6 @@ public class GameServer {
             client2.setCurrentGameId(gameId);
 
             session.startGame();
-            broadcastOnlineUsers();
         }
 
         activeLobbies.remove(lobby.getLobbyId());
@@ -288,9 +463,6 @@ public class GameServer {
                     lobby.notifyPlayersUpdate();
                 }
             }
-
-            // Broadcast cập nhật danh sách online users
-            broadcastOnlineUsers();
         }
     }
 
@@ -329,91 +501,41 @@ public class GameServer {
                         int score1, int score2, int duration) {
         activeSessions.remove(gameId);
 
-        ClientHandler client1 = onlineClients.get(player1);
-        ClientHandler client2 = onlineClients.get(player2);
-
-        if (client1 != null) {
-            client1.setInGame(false);
-            client1.setCurrentGameId(null);
-        }
-        if (client2 != null) {
-            client2.setInGame(false);
-            client2.setCurrentGameId(null);
-        }
+        // Chạy trên shard của trận, có thể sau khi người chơi đã thoát và vào trận khác:
+        // chỉ reset client còn gắn với trận này
+        leaveGame(onlineClients.get(player1), gameId);
+        leaveGame(onlineClients.get(player2), gameId);
 
-        saveGameResult(gameId, player1, player2, winner, score1, score2, duration);
-        broadcastOnlineUsers();
+        // Ghi DB ở thread nền (write-behind), không giữ thread của người chơi
+        resultWriter.submit(new GameResultWriter.GameResult(UUID.randomUUID().toString(), gameId,
+                player1, player2, winner, score1, score2, duration, System.currentTimeMillis()));
     }
 
-    private void saveGameResult(String gameId, String player1, String player2,
-                                String winner, int score1, int score2, int duration) {
-        try {
-            Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-
-            // Lưu kết quả game
-            String insertResult = """
-                INSERT INTO game_results (game_id, player1, player2, winner, player1_score, player2_score, duration_seconds)
-                VALUES (?, ?, ?, ?, ?, ?, ?)
-            """;
-
-            PreparedStatement stmt = conn.prepareStatement(insertResult);
-            stmt.setString(1, gameId);
-            stmt.setString(2, player1);
-            stmt.setString(3, player2);
-            stmt.setString(4, winner);
-            stmt.setInt(5, score1);
-            stmt.setInt(6, score2);
-            stmt.setInt(7, duration);
-            stmt.executeUpdate();
-
-            // Cập nhật thống kê người chơi
-            updatePlayerStats(player1, winner.equals(player1), score1);
-            updatePlayerStats(player2, winner.equals(player2), score2);
-
-            conn.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    private static void leaveGame(ClientHandler client, String gameId) {
+        if (client != null && gameId.equals(client.getCurrentGameId())) {
+            client.setInGame(false);
+            client.setCurrentGameId(null);
         }
     }
 
-    private void updatePlayerStats(String username, boolean won, int score) {
-        try {
-            Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-
-            String updateStats = """
-                UPDATE users SET 
-                total_score = total_score + ?,
-                games_played = games_played + 1,
-                games_won = games_won + ?
-                WHERE username = ?
-            """;
-
-            PreparedStatement stmt = conn.prepareStatement(updateStats);
-            stmt.setInt(1, score);
-            stmt.setInt(2, won ? 1 : 0);
-            stmt.setString(3, username);
-            stmt.executeUpdate();
-
-            conn.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    /**
+     * Cộng kết quả đã ghi DB vào cache thống kê, bảng xếp hạng và báo điểm mới cho presence
+     */
+    private void applyStatsToCache(String username, int games, int wins, int score) {
+        leaderboard.applyResults(username, games, wins, score);
+        if (userStats.applyGameResults(username, games, wins, score) != null) {
+            presence.scoreChanged(username);
         }
     }
 
+    private void onStatsRefreshed(String username) {
+        presence.scoreChanged(username);
+    }
+
     public boolean authenticateUser(String username, String password) {
         try {
-            Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            String query = "SELECT * FROM users WHERE username = ? AND password = ?";
-            PreparedStatement stmt = conn.prepareStatement(query);
-            stmt.setString(1, username);
-            stmt.setString(2, password);
-
-            ResultSet rs = stmt.executeQuery();
-            boolean exists = rs.next();
-
-            conn.close();
-            return exists;
-        } catch (SQLException e) {
+            return store.authenticate(username, password);
+        } catch (GameStore.StoreException e) {
             e.printStackTrace();
             return false;
         }
@@ -421,142 +543,143 @@ public class GameServer {
 
     public boolean registerUser(String username, String password) {
         try {
-            Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            String insert = "INSERT INTO users (username, password) VALUES (?, ?)";
-            PreparedStatement stmt = conn.prepareStatement(insert);
-            stmt.setString(1, username);
-            stmt.setString(2, password);
-
-            stmt.executeUpdate();
-            conn.close();
-            return true;
-        } catch (SQLException e) {
+            return store.registerUser(username, password);
+        } catch (GameStore.StoreException e) {
             e.printStackTrace();
             return false;
         }
     }
 
-    public int getUserTotalScore(String username) {
+    /**
+     * Đọc thống kê của người chơi từ store (loader của UserStatsCache)
+     */
+    private UserStatsCache.UserStats loadUserStats(String username) {
         try {
-            Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            String query = "SELECT total_score FROM users WHERE username = ?";
-            PreparedStatement stmt = conn.prepareStatement(query);
-            stmt.setString(1, username);
-
-            ResultSet rs = stmt.executeQuery();
-            int score = 0;
-            if (rs.next()) {
-                score = rs.getInt("total_score");
-            }
-
-            conn.close();
-            return score;
-        } catch (SQLException e) {
+            return store.loadUserStats(username);
+        } catch (GameStore.StoreException e) {
             e.printStackTrace();
-            return 0;
+            return null;
         }
     }
 
-    public String getLeaderboard() {
+    /**
+     * Nạp bảng xếp hạng từ store một lần lúc khởi động; sau đó chỉ cập nhật trong bộ nhớ
+     */
+    private void loadLeaderboard() {
         try {
-            Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            String query = """
-                SELECT username, total_score, games_played, games_won,
-                CASE WHEN games_played > 0 THEN (games_won * 100.0 / games_played) ELSE 0 END as win_rate
-                FROM users 
-                WHERE games_played > 0
-                ORDER BY win_rate DESC, total_score DESC
-                LIMIT 20
-            """;
-
-            PreparedStatement stmt = conn.prepareStatement(query);
-            ResultSet rs = stmt.executeQuery();
-
-            StringBuilder leaderboard = new StringBuilder("LEADERBOARD:");
-            while (rs.next()) {
-                String username = rs.getString("username");
-                int totalScore = rs.getInt("total_score");
-                int gamesPlayed = rs.getInt("games_played");
-                int gamesWon = rs.getInt("games_won");
-                double winRate = rs.getDouble("win_rate");
-
-                leaderboard.append(username).append(",")
-                        .append(totalScore).append(",")
-                        .append(gamesPlayed).append(",")
-                        .append(gamesWon).append(",")
-                        .append(String.format("%.2f", winRate)).append(";");
+            for (Map.Entry<String, UserStatsCache.UserStats> entry : store.loadRankedUsers().entrySet()) {
+                UserStatsCache.UserStats stats = entry.getValue();
+                leaderboard.put(entry.getKey(), stats.getTotalScore(), stats.getGamesPlayed(), stats.getGamesWon());
             }
-
-            conn.close();
-            return leaderboard.toString();
-        } catch (SQLException e) {
+        } catch (GameStore.StoreException e) {
             e.printStackTrace();
-            return "LEADERBOARD:";
         }
     }
 
+    /**
+     * Top 20 đã dựng sẵn. Người gọi phải release() sau khi gửi.
+     */
+    public SharedMessage getLeaderboard() {
+        return leaderboard.topPayload();
+    }
+
+    public String getRank(String username) {
+        return leaderboard.rankMessage(username);
+    }
+
     public Map<String, ClientHandler> getOnlineClients() {
         return onlineClients;
     }
 
+    /**
+     * 50 trận gần nhất (lệnh cũ GET_MATCH_HISTORY, giữ cho client chưa phân trang)
+     */
     public String getMatchHistory(String username) {
+        StringBuilder history = new StringBuilder("MATCH_HISTORY:");
         try {
-            Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            String query = """
-                SELECT game_id, player1, player2, winner, player1_score, player2_score, 
-                       duration_seconds, played_at
-                FROM game_results 
-                WHERE player1 = ? OR player2 = ?
-                ORDER BY played_at DESC
-                LIMIT 50
-            """;
-
-            PreparedStatement stmt = conn.prepareStatement(query);
-            stmt.setString(1, username);
-            stmt.setString(2, username);
-            ResultSet rs = stmt.executeQuery();
-
-            StringBuilder history = new StringBuilder("MATCH_HISTORY:");
-            while (rs.next()) {
-                String gameId = rs.getString("game_id");
-                String player1 = rs.getString("player1");
-                String player2 = rs.getString("player2");
-                String winner = rs.getString("winner");
-                int player1Score = rs.getInt("player1_score");
-                int player2Score = rs.getInt("player2_score");
-                int duration = rs.getInt("duration_seconds");
-                String playedAt = rs.getTimestamp("played_at").toString();
-
-                // Xác định đối thủ và điểm của người chơi
-                String opponent = player1.equals(username) ? player2 : player1;
-                int myScore = player1.equals(username) ? player1Score : player2Score;
-                int opponentScore = player1.equals(username) ? player2Score : player1Score;
-
-                // Xác định kết quả (WIN/LOSS/DRAW)
-                String result;
-                if (winner.equals("DRAW")) {
-                    result = "DRAW";
-                } else if (winner.equals(username)) {
-                    result = "WIN";
-                } else {
-                    result = "LOSS";
-                }
+            appendMatchHistory(username, GameStore.NO_CURSOR, 0, HISTORY_LIMIT, history);
+            return history.toString();
+        } catch (GameStore.StoreException e) {
+            e.printStackTrace();
+            return "MATCH_HISTORY:";
+        }
+    }
 
-                history.append(gameId).append(",")
-                        .append(opponent).append(",")
-                        .append(result).append(",")
-                        .append(myScore).append(",")
-                        .append(opponentScore).append(",")
-                        .append(duration).append(",")
-                        .append(playedAt).append(";");
+    /**
+     * Một trang lịch sử đấu, mới nhất trước.
+     * Yêu cầu: pageSize hoặc pageSize:playedAtMillis,id (con trỏ = trận cuối của trang trước).
+     * Trả về MATCH_HISTORY_PAGE:nextCursor:rows, nextCursor là "-" khi đã hết.
+     * Phân trang theo keyset (played_at, id) thay vì OFFSET nên trang sâu cũng nhanh như trang đầu.
+     */
+    public String getMatchHistoryPage(String username, String request) {
+        String[] parts = request.split(":", 2);
+        int pageSize;
+        long afterPlayedAt = GameStore.NO_CURSOR;
+        int afterId = 0;
+        try {
+            pageSize = parts[0].isEmpty() ? HISTORY_PAGE_SIZE : Integer.parseInt(parts[0]);
+            if (parts.length == 2) {
+                String[] cursor = parts[1].split(",");
+                afterPlayedAt = Long.parseLong(cursor[0]);
+                afterId = Integer.parseInt(cursor[1]);
             }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return "MATCH_HISTORY_PAGE:-:";
+        }
+        pageSize = Math.max(1, Math.min(pageSize, HISTORY_MAX_PAGE_SIZE));
 
-            conn.close();
-            return history.toString();
-        } catch (SQLException e) {
+        StringBuilder rows = new StringBuilder();
+        try {
+            String nextCursor = appendMatchHistory(username, afterPlayedAt, afterId, pageSize, rows);
+            return "MATCH_HISTORY_PAGE:" + (nextCursor == null ? "-" : nextCursor) + ":" + rows;
+        } catch (GameStore.StoreException e) {
             e.printStackTrace();
-            return "MATCH_HISTORY:";
+            return "MATCH_HISTORY_PAGE:-:";
+        }
+    }
+
+    /**
+     * Ghi tối đa limit trận (cũ hơn con trỏ nếu có) vào out, trả về con trỏ của trang kế tiếp
+     * hoặc null nếu không còn trận nào
+     */
+    private String appendMatchHistory(String username, long afterPlayedAt, int afterId, int limit,
+                                      StringBuilder out) throws GameStore.StoreException {
+        // Đọc dư một dòng để biết còn trang sau hay không
+        List<GameStore.MatchRecord> records = store.matchHistory(username, afterPlayedAt, afterId, limit + 1);
+        int count = Math.min(limit, records.size());
+        for (int i = 0; i < count; i++) {
+            GameStore.MatchRecord match = records.get(i);
+            String player1 = match.getPlayer1();
+            String winner = match.getWinner();
+
+            // Xác định đối thủ và điểm của người chơi
+            String opponent = player1.equals(username) ? match.getPlayer2() : player1;
+            int myScore = player1.equals(username) ? match.getPlayer1Score() : match.getPlayer2Score();
+            int opponentScore = player1.equals(username) ? match.getPlayer2Score() : match.getPlayer1Score();
+
+            // Xác định kết quả (WIN/LOSS/DRAW)
+            String result;
+            if (winner.equals("DRAW")) {
+                result = "DRAW";
+            } else if (winner.equals(username)) {
+                result = "WIN";
+            } else {
+                result = "LOSS";
+            }
+
+            out.append(match.getGameId()).append(",")
+                    .append(opponent).append(",")
+                    .append(result).append(",")
+                    .append(myScore).append(",")
+                    .append(opponentScore).append(",")
+                    .append(match.getDurationSeconds()).append(",")
+                    .append(new Timestamp(match.getPlayedAtMillis())).append(";");
+        }
+        if (records.size() <= limit) {
+            return null;
         }
+        GameStore.MatchRecord last = records.get(count - 1);
+        return last.getPlayedAtMillis() + "," + last.getId();
     }
 
     public void stop() {
@@ -564,9 +687,29 @@ public class GameServer {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+            if (nioServer != null) {
+                nioServer.stop();
+            }
+            if (pinningMonitor != null) {
+                pinningMonitor.stop();
+            }
+            if (statsReporter != null) {
+                statsReporter.shutdown();
+            }
+            timers.stop();
+            // Dừng trận và lệnh đang chạy trước khi đóng store: không task nào còn ghi vào store đã đóng
+            sessionShards.stop();
             executor.shutdown();
+            if (nioServer != null) {
+                // Chế độ NIO: executor chỉ chạy các lệnh chờ DB/file, đều ngắn
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+            resultWriter.shutdown();
+            store.close();
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
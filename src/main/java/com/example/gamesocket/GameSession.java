@@ -2,99 +2,192 @@ package com.example.gamesocket;
 // GameSession.java
 import java.util.*;
 import java.util.concurrent.*;
-
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Một trận đấu giữa hai người chơi.
+ *
+ * Trận là một actor: các phương thức public chỉ bỏ sự kiện vào mailbox, sự kiện chạy tuần tự
+ * trên shard thread của trận (xem SessionShards). Vì vậy mọi trạng thái bên dưới chỉ được
+ * đọc/ghi bởi một thread tại một thời điểm và không cần khóa.
+ */
 public class GameSession {
-    private enum GrainType { RICE, CHAFF }
-    private enum PowerupType { NONE, SCORE_BUFF, SCORE_DEBUFF }
-    private static final int TOTAL_GRAINS = 100;
-    private static final int TARGET_RICE = 50;
+    // Power-up của hạt; cộng với RICE_OFFSET/CHAFF_OFFSET ra chỉ số BinaryProtocol.RESULT_TYPES
+    private static final int POWERUP_NONE = 0;
+    private static final int POWERUP_BUFF = 1;
+    private static final int POWERUP_DEBUFF = 2;
+    private static final int RICE_OFFSET = 0;
+    private static final int CHAFF_OFFSET = 3;
     private static final int GAME_DURATION = 100; // seconds
+    // Số click chờ tối đa của một trận (lũy thừa của 2), lớn hơn nhiều so với burst của rate limiter
+    private static final int CLICK_QUEUE_CAPACITY = 256;
+    private static final int CLICK_QUEUE_MASK = CLICK_QUEUE_CAPACITY - 1;
 
     private String gameId;
     private String player1;
     private String player2;
     private GameServer server;
-
-    private Map<String, Integer> playerScores;
-    private Map<String, Set<Integer>> playerClicks;
-    private GrainType[] grainTypes; // Mảng lưu loại hạt (gạo/thóc)
-    private PowerupType[] powerupTypes; // Mảng lưu loại power-up (buff/debuff/none)
-    private Timer gameTimer;
+    private final BoardLayout.Params board;
+
+    // Trạng thái theo chỉ số người chơi: 0 = player1, 1 = player2
+    private final int[] scores = new int[2];
+    private final BitSet[] clicked;
+    // Bàn chơi sinh từ boardSeed (client tự dựng lại từ seed này); power-up dùng seed riêng,
+    // không gửi cho client để vị trí buff/debuff vẫn bí mật
+    private final long boardSeed;
+    private final long powerupSeed;
+    private final BitSet rice; // bit bật = hạt gạo, tắt = hạt thóc
+    private final BitSet buffs;
+    private final BitSet debuffs;
+    // Hẹn giờ của trận trên timing wheel chung của server, hủy hết khi trận kết thúc
+    private final List<TimingWheel.Timeout> timers = new ArrayList<>();
     private long gameStartTime;
     private boolean gameEnded;
+    private final SessionShards.Mailbox mailbox;
+    // Click chờ xử lý: hàng đợi vòng nhiều-thread-ghi (thread đọc của hai người chơi), một-thread-đọc
+    // (shard thread). Mỗi ô có số thứ tự cho biết ô đang trống hay đã có click; không cấp phát khi ghi.
+    private final long[] clickQueue = new long[CLICK_QUEUE_CAPACITY];
+    private final AtomicLongArray clickSequence = new AtomicLongArray(CLICK_QUEUE_CAPACITY);
+    private final AtomicLong clickTail = new AtomicLong();
+    private long clickHead; // chỉ shard thread đọc/ghi
 
     // Biến mới: Theo dõi các hạt gạo đã được nhặt
-    private int totalRiceCount = 0;
-    private Set<Integer> allRiceClickedPositions;
+    private final BitSet collectedRice;
+    private int collectedRiceCount;
 
-    public GameSession(String gameId, String player1, String player2, GameServer server) {
+    public GameSession(String gameId, String player1, String player2, GameServer server, BoardLayout.Params board) {
         this.gameId = gameId;
         this.player1 = player1;
         this.player2 = player2;
         this.server = server;
-
-        this.playerScores = new HashMap<>();
-        this.playerClicks = new HashMap<>();
+        this.board = board;
         this.gameEnded = false;
-        this.allRiceClickedPositions = new HashSet<>();
-
-        playerScores.put(player1, 0);
-        playerScores.put(player2, 0);
-        playerClicks.put(player1, new HashSet<>());
-        playerClicks.put(player2, new HashSet<>());
+        this.mailbox = server.getSessionShards().mailbox(gameId, this::drainClicks);
+        for (int i = 0; i < CLICK_QUEUE_CAPACITY; i++) {
+            clickSequence.set(i, i);
+        }
+        this.boardSeed = ThreadLocalRandom.current().nextLong();
+        this.powerupSeed = ThreadLocalRandom.current().nextLong();
+        int grains = board.getTotalGrains();
+        this.rice = BoardLayout.rice(boardSeed, grains, board.getRiceCount());
+        this.clicked = new BitSet[] { new BitSet(grains), new BitSet(grains) };
+        this.collectedRice = new BitSet(grains);
+        this.buffs = new BitSet(grains);
+        this.debuffs = new BitSet(grains);
 
         initializeItems();
     }
 
     private void initializeItems() {
-        grainTypes = new GrainType[TOTAL_GRAINS];
-        powerupTypes = new PowerupType[TOTAL_GRAINS];
-        Arrays.fill(grainTypes, GrainType.CHAFF); // Default to chaff
-        Arrays.fill(powerupTypes, PowerupType.NONE); // Default to no powerup
-        Random random = new Random();
-
-        // TÍNH TOÁN: 100 hạt tổng cộng
+        // TÍNH TOÁN (bàn cổ điển): 100 hạt tổng cộng
         // - 67 hạt gạo (2/3 của 100 hạt)
         // - 33 hạt trấu
         // - 5 buff (có thể nằm ở bất kỳ hạt nào, kể cả hạt gạo)
         // - 3 debuff (có thể nằm ở bất kỳ hạt nào, kể cả hạt gạo)
+        // Bàn lớn giữ cùng tỉ lệ (BoardLayout.Params); hạt gạo đã sinh từ boardSeed trong constructor
 
-        // Place rice - ĐẶT 67 HẠT GẠO
-        Set<Integer> ricePositions = new HashSet<>();
-        int numRice = 67;
-        for (int i = 0; i < numRice; i++) {
-            int pos;
-            do {
-                pos = random.nextInt(TOTAL_GRAINS);
-            } while (ricePositions.contains(pos));
-            ricePositions.add(pos);
-            grainTypes[pos] = GrainType.RICE;
-            totalRiceCount++;
+        // Buff/debuff ở các vị trí khác nhau: getBuffCount() vị trí đầu là buff, tiếp theo là debuff
+        int powerupCount = board.getBuffCount() + board.getDebuffCount();
+        int[] order = BoardLayout.pick(powerupSeed, board.getTotalGrains(), powerupCount);
+        for (int i = 0; i < powerupCount; i++) {
+            (i < board.getBuffCount() ? buffs : debuffs).set(order[i]);
         }
+    }
 
-        // Place score buffs - 5 hạt (có thể nằm ở BẤT KỲ vị trí nào, kể cả hạt gạo)
-        Set<Integer> powerupPositions = new HashSet<>();
-        for (int i = 0; i < 5; i++) {
-            int pos;
-            do {
-                pos = random.nextInt(TOTAL_GRAINS);
-            } while (powerupPositions.contains(pos));
-            powerupPositions.add(pos);
-            powerupTypes[pos] = PowerupType.SCORE_BUFF;
+    /**
+     * Chỉ số của người chơi trong trận (0 hoặc 1), -1 nếu không thuộc trận này
+     */
+    private int slotOf(String player) {
+        if (player1.equals(player)) {
+            return 0;
         }
+        return player2.equals(player) ? 1 : -1;
+    }
 
-        // Place score debuffs - 3 hạt (có thể nằm ở BẤT KỲ vị trí nào, kể cả hạt gạo)
-        for (int i = 0; i < 3; i++) {
-            int pos;
-            do {
-                pos = random.nextInt(TOTAL_GRAINS);
-            } while (powerupPositions.contains(pos));
-            powerupPositions.add(pos);
-            powerupTypes[pos] = PowerupType.SCORE_DEBUFF;
-        }
+    private String playerAt(int slot) {
+        return slot == 0 ? player1 : player2;
     }
 
     public void startGame() {
+        mailbox.post(this::onStart);
+    }
+
+    /**
+     * Click của người chơi: ghi (người chơi, hạt) vào hàng đợi click rồi signal() mailbox,
+     * không tạo object nào trên thread đọc của client. Hàng đợi đầy (shard tụt lại quá
+     * CLICK_QUEUE_CAPACITY click) thì thread đọc chờ, như khi buffer TCP đầy.
+     */
+    public void handlePlayerAction(String player, int grainIndex) {
+        int slot = slotOf(player);
+        if (slot < 0) {
+            return;
+        }
+        long click = (long) slot << 32 | (grainIndex & 0xFFFFFFFFL);
+        while (!offerClick(click)) {
+            if (!mailbox.isRunning()) {
+                return;
+            }
+            Thread.yield();
+        }
+        mailbox.signal();
+    }
+
+    private boolean offerClick(long click) {
+        long position = clickTail.get();
+        while (true) {
+            int index = (int) position & CLICK_QUEUE_MASK;
+            long sequence = clickSequence.get(index);
+            if (sequence == position) {
+                if (clickTail.compareAndSet(position, position + 1)) {
+                    clickQueue[index] = click;
+                    // Ghi số thứ tự sau cùng: shard thread thấy số này thì cũng thấy click
+                    clickSequence.set(index, position + 1);
+                    return true;
+                }
+                position = clickTail.get();
+            } else if (sequence < position) {
+                return false; // Đầy
+            } else {
+                position = clickTail.get();
+            }
+        }
+    }
+
+    /**
+     * Chạy trên shard thread khi mailbox được signal(): xử lý các click đang chờ theo thứ tự
+     */
+    private void drainClicks() {
+        for (int i = 0; i < CLICK_QUEUE_CAPACITY; i++) {
+            int index = (int) clickHead & CLICK_QUEUE_MASK;
+            if (clickSequence.get(index) != clickHead + 1) {
+                return;
+            }
+            long click = clickQueue[index];
+            clickSequence.set(index, clickHead + CLICK_QUEUE_CAPACITY);
+            clickHead++;
+            onPlayerAction(playerAt((int) (click >>> 32)), (int) click);
+        }
+        // Còn click chưa xử lý: nhường trận khác trên shard rồi xử lý tiếp ở lượt sau
+        mailbox.signal();
+    }
+
+    /**
+     * Xử lý khi người chơi sử dụng buff hoặc debuff từ inventory
+     */
+    public void handleUseBuffDebuff(String player, boolean isBuff) {
+        mailbox.post(() -> onUseBuffDebuff(player, isBuff));
+    }
+
+    /**
+     * Xử lý khi một người chơi thoát game giữa chừng
+     * Người thoát sẽ thua, người còn lại sẽ thắng
+     */
+    public void handlePlayerQuit(String quittingPlayer) {
+        mailbox.post(() -> onPlayerQuit(quittingPlayer));
+    }
+
+    private void onStart() {
         gameStartTime = System.currentTimeMillis();
 
         // Gửi thông tin bắt đầu game cho cả hai người chơi
@@ -102,21 +195,18 @@ public class GameSession {
         ClientHandler client2 = server.getOnlineClients().get(player2);
 
         if (client1 != null && client2 != null) {
-            // Tạo chuỗi chứa thông tin vị trí các hạt gạo
-            StringBuilder grainPositions = new StringBuilder();
-            for (int i = 0; i < TOTAL_GRAINS; i++) {
-                if (grainTypes[i] == GrainType.RICE) {
-                    grainPositions.append(i).append(":");
-                }
-            }
-            String ricePositions = grainPositions.length() > 0 ?
-                grainPositions.substring(0, grainPositions.length() - 1) : "";
-
-            String gameStartMessage = "GAME_STARTED:" + gameId + "," + player2 + "," + GAME_DURATION + "," + ricePositions;
-            String gameStartMessage2 = "GAME_STARTED:" + gameId + "," + player1 + "," + GAME_DURATION + "," + ricePositions;
+            // Chỉ gửi seed và tham số bàn chơi, client tự sinh lại vị trí hạt gạo bằng BoardLayout
+            // Độ dài message không phụ thuộc kích thước bàn
+            String boardInfo = "," + GAME_DURATION + "," + boardSeed + "," + board.getTotalGrains() + ","
+                    + board.getRiceCount();
+            String gameStartMessage = "GAME_STARTED:" + gameId + "," + player2 + boardInfo;
+            String gameStartMessage2 = "GAME_STARTED:" + gameId + "," + player1 + boardInfo;
 
             client1.sendMessage(gameStartMessage);
             client2.sendMessage(gameStartMessage2);
+            // Đủ để dựng lại bàn chơi khi cần xem lại trận
+            System.out.println("Game " + gameId + " started: " + player1 + " vs " + player2
+                    + " (" + board + ", board seed " + boardSeed + ", powerup seed " + powerupSeed + ")");
 
             // Bắt đầu timer cho game
             startGameTimer();
@@ -124,80 +214,82 @@ public class GameSession {
     }
 
     private void startGameTimer() {
-        gameTimer = new Timer();
-        gameTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (!gameEnded) {
-                    endGameByTimeout();
-                }
-            }
-        }, GAME_DURATION * 1000);
+        schedule(this::endGameByTimeout, GAME_DURATION * 1000L);
     }
 
-    public synchronized void handlePlayerAction(String player, int grainIndex) {
-        if (gameEnded || grainIndex < 0 || grainIndex >= TOTAL_GRAINS) {
+    /**
+     * Hẹn một sự kiện của trận (hết giờ, hết hiệu lực power-up...) trên timing wheel chung.
+     * Khi tới hạn, task được gửi vào mailbox như mọi sự kiện khác và bị bỏ qua nếu trận đã kết thúc.
+     */
+    private void schedule(Runnable task, long delayMillis) {
+        if (gameEnded) {
             return;
         }
+        timers.add(server.getTimers().schedule(() -> mailbox.post(() -> {
+            if (!gameEnded) {
+                task.run();
+            }
+        }), delayMillis));
+    }
 
-        GrainType grainType = grainTypes[grainIndex];
-        PowerupType powerupType = powerupTypes[grainIndex];
-        ClientHandler client = server.getOnlineClients().get(player);
-        String opponent = player.equals(player1) ? player2 : player1;
-        ClientHandler opponentClient = server.getOnlineClients().get(opponent);
+    private void cancelTimers() {
+        for (TimingWheel.Timeout timeout : timers) {
+            timeout.cancel();
+        }
+        timers.clear();
+    }
 
-        Set<Integer> playerClickSet = playerClicks.get(player);
+    private void onPlayerAction(String player, int grainIndex) {
+        int slot = slotOf(player);
+        if (gameEnded || slot < 0 || grainIndex < 0 || grainIndex >= board.getTotalGrains()) {
+            return;
+        }
+
+        boolean isRice = rice.get(grainIndex);
+        int powerup = buffs.get(grainIndex) ? POWERUP_BUFF : debuffs.get(grainIndex) ? POWERUP_DEBUFF : POWERUP_NONE;
+        BitSet playerClicks = clicked[slot];
 
         // Biến theo dõi điểm số
-        int currentScore = playerScores.get(player);
-        boolean hasClicked = playerClickSet.contains(grainIndex);
+        int currentScore = scores[slot];
+        boolean hasClicked = playerClicks.get(grainIndex);
 
         // Xử lý hạt gạo/thóc
-        if (grainType == GrainType.RICE) {
+        if (isRice) {
             // Hạt gạo: kiểm tra đã click chưa
             if (hasClicked) {
                 return; // Already clicked
             }
-            playerClickSet.add(grainIndex);
-            allRiceClickedPositions.add(grainIndex);
+            playerClicks.set(grainIndex);
+            if (!collectedRice.get(grainIndex)) {
+                collectedRice.set(grainIndex);
+                collectedRiceCount++;
+            }
 
             // Cộng 1 điểm cho hạt gạo
             currentScore += 1;
-            playerScores.put(player, currentScore);
-
-        } else if (grainType == GrainType.CHAFF) {
+        } else {
             // Hạt trấu: KHÔNG kiểm tra đã click nếu KHÔNG có powerup
             // Nếu có powerup thì chỉ click được 1 lần
-            if (powerupType != PowerupType.NONE) {
+            if (powerup != POWERUP_NONE) {
                 if (hasClicked) {
                     return; // Đã click hạt có powerup rồi
                 }
-                playerClickSet.add(grainIndex);
+                playerClicks.set(grainIndex);
             }
 
             // Trừ 1 điểm cho hạt trấu
             currentScore -= 1;
             if (currentScore < 0) currentScore = 0;
-            playerScores.put(player, currentScore);
         }
+        scores[slot] = currentScore;
 
-        // Xử lý buff/debuff (nếu có) - CHỈ THU THẬP VÀO INVENTORY
-        if (powerupType == PowerupType.SCORE_BUFF) {
-            // Buff: Không tự động kích hoạt, chỉ thu thập vào inventory
-            // (Điểm số không thay đổi ở đây)
-
-        } else if (powerupType == PowerupType.SCORE_DEBUFF) {
-            // Debuff: Không tự động kích hoạt, chỉ thu thập vào inventory
-            // (Điểm số đối thủ không thay đổi ở đây)
-        }
+        // Buff/debuff (nếu có) không tự kích hoạt, client chỉ thu thập vào inventory
+        // (điểm số không thay đổi ở đây)
 
         // Gửi kết quả cho người chơi
-        String resultType = grainType == GrainType.RICE ? "RICE" : "CHAFF";
-        if (powerupType == PowerupType.SCORE_BUFF) {
-            resultType += "_BUFF";
-        } else if (powerupType == PowerupType.SCORE_DEBUFF) {
-            resultType += "_DEBUFF";
-        }
+        String resultType = BinaryProtocol.RESULT_TYPES[(isRice ? RICE_OFFSET : CHAFF_OFFSET) + powerup];
+        ClientHandler client = server.getOnlineClients().get(player);
+        ClientHandler opponentClient = server.getOnlineClients().get(playerAt(1 - slot));
 
         if (client != null) {
             client.sendMessage("GRAIN_RESULT:" + grainIndex + "," + resultType + "," + currentScore);
@@ -210,33 +302,31 @@ public class GameSession {
         }
 
         // KIỂM TRA ĐIỀU KIỆN KẾT THÚC GAME
-        // 1. Nếu người chơi đạt 50 điểm -> Thắng ngay
-        if (currentScore >= TARGET_RICE) {
+        // 1. Nếu người chơi đạt điểm thắng (50 ở bàn cổ điển) -> Thắng ngay
+        if (currentScore >= board.getTargetScore()) {
             endGame(player);
             return;
         }
 
         // 2. Nếu tất cả hạt gạo đã được nhặt hết -> Người có điểm cao hơn thắng
-        if (allRiceClickedPositions.size() >= totalRiceCount) {
+        if (collectedRiceCount >= board.getRiceCount()) {
             endGameAllRiceCollected();
             return;
         }
     }
 
-    /**
-     * Xử lý khi người chơi sử dụng buff hoặc debuff từ inventory
-     */
-    public synchronized void handleUseBuffDebuff(String player, boolean isBuff) {
-        if (gameEnded) return;
+    private void onUseBuffDebuff(String player, boolean isBuff) {
+        int slot = slotOf(player);
+        if (gameEnded || slot < 0) return;
 
         ClientHandler client = server.getOnlineClients().get(player);
-        String opponent = player.equals(player1) ? player2 : player1;
+        String opponent = playerAt(1 - slot);
         ClientHandler opponentClient = server.getOnlineClients().get(opponent);
 
         if (isBuff) {
             // Buff: Cộng 3 điểm cho người chơi
-            int newScore = playerScores.get(player) + 3;
-            playerScores.put(player, newScore);
+            int newScore = scores[slot] + 3;
+            scores[slot] = newScore;
 
             // Gửi cho người chơi: chỉ BUFF_ACTIVATED (không gửi OPPONENT_SCORE)
             if (client != null) {
@@ -248,15 +338,15 @@ public class GameSession {
             }
 
             // Kiểm tra điều kiện thắng
-            if (newScore >= TARGET_RICE) {
+            if (newScore >= board.getTargetScore()) {
                 endGame(player);
                 return;
             }
         } else {
             // Debuff: Trừ 2 điểm của đối thủ
-            int opponentScore = playerScores.get(opponent) - 2;
+            int opponentScore = scores[1 - slot] - 2;
             if (opponentScore < 0) opponentScore = 0;
-            playerScores.put(opponent, opponentScore);
+            scores[1 - slot] = opponentScore;
 
             // Gửi cho người chơi: thông báo thành công VÀ cập nhật điểm đối thủ
             if (client != null) {
@@ -273,8 +363,8 @@ public class GameSession {
     private void endGameByTimeout() {
         if (gameEnded) return;
 
-        int score1 = playerScores.get(player1);
-        int score2 = playerScores.get(player2);
+        int score1 = scores[0];
+        int score2 = scores[1];
 
         String winner;
         if (score1 > score2) {
@@ -293,50 +383,33 @@ public class GameSession {
 
         gameEnded = true;
 
-        if (gameTimer != null) {
-            gameTimer.cancel();
-        }
+        cancelTimers();
 
-        int score1 = playerScores.get(player1);
-        int score2 = playerScores.get(player2);
+        int score1 = scores[0];
+        int score2 = scores[1];
 
         long duration = (System.currentTimeMillis() - gameStartTime) / 1000;
 
         // Gửi kết quả cho cả hai người chơi
-        ClientHandler client1 = server.getOnlineClients().get(player1);
-        ClientHandler client2 = server.getOnlineClients().get(player2);
-
         String gameEndMessage = "GAME_ENDED:" + winner + "," + score1 + "," + score2;
-
-        if (client1 != null) {
-            client1.sendMessage(gameEndMessage);
-        }
-        if (client2 != null) {
-            client2.sendMessage(gameEndMessage);
-        }
+        server.broadcastToPlayers(List.of(player1, player2), gameEndMessage);
 
         // Thông báo server kết thúc game
         server.endGame(gameId, winner, player1, player2, score1, score2, (int)duration);
     }
 
-    /**
-     * Xử lý khi một người chơi thoát game giữa chừng
-     * Người thoát sẽ thua, người còn lại sẽ thắng
-     */
-    public synchronized void handlePlayerQuit(String quittingPlayer) {
+    private void onPlayerQuit(String quittingPlayer) {
         if (gameEnded) return;
 
         gameEnded = true;
 
-        if (gameTimer != null) {
-            gameTimer.cancel();
-        }
+        cancelTimers();
 
         // Xác định người thắng (người không thoát)
         String winner = quittingPlayer.equals(player1) ? player2 : player1;
 
-        int score1 = playerScores.get(player1);
-        int score2 = playerScores.get(player2);
+        int score1 = scores[0];
+        int score2 = scores[1];
 
         long duration = (System.currentTimeMillis() - gameStartTime) / 1000;
 
@@ -363,12 +436,10 @@ public class GameSession {
 
         gameEnded = true;
 
-        if (gameTimer != null) {
-            gameTimer.cancel();
-        }
+        cancelTimers();
 
-        int score1 = playerScores.get(player1);
-        int score2 = playerScores.get(player2);
+        int score1 = scores[0];
+        int score2 = scores[1];
 
         String winner;
         if (score1 > score2) {
@@ -380,17 +451,8 @@ public class GameSession {
         }
 
         // Gửi kết quả cho cả hai người chơi
-        ClientHandler client1 = server.getOnlineClients().get(player1);
-        ClientHandler client2 = server.getOnlineClients().get(player2);
-
         String gameEndMessage = "GAME_ENDED:" + winner + "," + score1 + "," + score2;
-
-        if (client1 != null) {
-            client1.sendMessage(gameEndMessage);
-        }
-        if (client2 != null) {
-            client2.sendMessage(gameEndMessage);
-        }
+        server.broadcastToPlayers(List.of(player1, player2), gameEndMessage);
 
         // Thông báo server kết thúc game
         server.endGame(gameId, winner, player1, player2, score1, score2, 0);
@@ -0,0 +1,112 @@
+package com.example.gamesocket;
+// GameStore.java
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lớp lưu trữ của server: tài khoản, đăng nhập, kết quả trận, thống kê, bảng xếp hạng và lịch sử đấu.
+ *
+ * Hai bản cài đặt, chọn bằng -Dgame.server.store:
+ * - JdbcGameStore: MySQL qua ConnectionPool (mặc định, như trước)
+ * - FileGameStore: file log chỉ ghi nối + chỉ mục trong bộ nhớ, cho server chạy một máy
+ *   hoặc chạy thử mà không cần MySQL
+ *
+ * Mọi phương thức đều có thể được gọi đồng thời từ nhiều thread.
+ */
+public interface GameStore {
+
+    /**
+     * Con trỏ rỗng cho matchHistory: bắt đầu từ trận mới nhất
+     */
+    long NO_CURSOR = Long.MIN_VALUE;
+
+    /**
+     * Lỗi của tầng lưu trữ (DB không kết nối được, ghi file lỗi...)
+     */
+    class StoreException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public StoreException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Một trận trong lịch sử đấu
+     */
+    final class MatchRecord {
+        private final int id;
+        private final String gameId;
+        private final String player1;
+        private final String player2;
+        private final String winner;
+        private final int player1Score;
+        private final int player2Score;
+        private final int durationSeconds;
+        private final long playedAtMillis;
+
+        public MatchRecord(int id, String gameId, String player1, String player2, String winner,
+                           int player1Score, int player2Score, int durationSeconds, long playedAtMillis) {
+            this.id = id;
+            this.gameId = gameId;
+            this.player1 = player1;
+            this.player2 = player2;
+            this.winner = winner;
+            this.player1Score = player1Score;
+            this.player2Score = player2Score;
+            this.durationSeconds = durationSeconds;
+            this.playedAtMillis = playedAtMillis;
+        }
+
+        public int getId() { return id; }
+        public String getGameId() { return gameId; }
+        public String getPlayer1() { return player1; }
+        public String getPlayer2() { return player2; }
+        public String getWinner() { return winner; }
+        public int getPlayer1Score() { return player1Score; }
+        public int getPlayer2Score() { return player2Score; }
+        public int getDurationSeconds() { return durationSeconds; }
+        public long getPlayedAtMillis() { return playedAtMillis; }
+    }
+
+    /**
+     * Chuẩn bị store (tạo/migrate schema, đọc lại log...). Gọi một lần lúc khởi động.
+     */
+    void open() throws StoreException;
+
+    boolean authenticate(String username, String password) throws StoreException;
+
+    /**
+     * @return false nếu tên đăng nhập đã tồn tại
+     */
+    boolean registerUser(String username, String password) throws StoreException;
+
+    /**
+     * @return null nếu không có người chơi này
+     */
+    UserStatsCache.UserStats loadUserStats(String username) throws StoreException;
+
+    /**
+     * Thống kê của mọi người chơi đã chơi ít nhất một trận (nạp bảng xếp hạng lúc khởi động)
+     */
+    Map<String, UserStatsCache.UserStats> loadRankedUsers() throws StoreException;
+
+    /**
+     * Ghi một lô kết quả trận và cộng thống kê của người chơi, tất cả hoặc không gì cả.
+     * Kết quả có resultId đã nằm trong store thì bỏ qua (ghi lại từ file spill).
+     *
+     * @return các kết quả thực sự được ghi
+     */
+    List<GameResultWriter.GameResult> saveResults(List<GameResultWriter.GameResult> results) throws StoreException;
+
+    /**
+     * Tối đa limit trận của người chơi, mới nhất trước, xếp theo (played_at, id) giảm dần.
+     * Có con trỏ thì chỉ lấy các trận đứng sau (afterPlayedAtMillis, afterId).
+     */
+    List<MatchRecord> matchHistory(String username, long afterPlayedAtMillis, int afterId, int limit)
+            throws StoreException;
+
+    void close();
+
+    String summary();
+}
@@ -0,0 +1,255 @@
+package com.example.gamesocket;
+// JdbcGameStore.java
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * GameStore trên MySQL qua ConnectionPool; schema do SchemaMigrator quản lý
+ */
+public class JdbcGameStore implements GameStore {
+
+    private static final String INSERT_RESULT = """
+        INSERT INTO game_results (result_id, game_id, player1, player2, winner, player1_score, player2_score, duration_seconds, played_at)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+    """;
+
+    private static final String UPDATE_STATS = """
+        UPDATE users SET
+        total_score = total_score + ?,
+        games_played = games_played + ?,
+        games_won = games_won + ?
+        WHERE username = ?
+    """;
+
+    private final ConnectionPool dbPool;
+
+    public JdbcGameStore(ConnectionPool dbPool) {
+        this.dbPool = dbPool;
+    }
+
+    @Override
+    public void open() throws StoreException {
+        try {
+            new SchemaMigrator(dbPool).migrate();
+        } catch (SQLException e) {
+            throw new StoreException("Schema migration failed", e);
+        }
+    }
+
+    @Override
+    public boolean authenticate(String username, String password) throws StoreException {
+        String query = "SELECT 1 FROM users WHERE username = ? AND password = ?";
+        try (Connection conn = dbPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, username);
+            stmt.setString(2, password);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            throw new StoreException("Authentication query failed for " + username, e);
+        }
+    }
+
+    @Override
+    public boolean registerUser(String username, String password) throws StoreException {
+        String insert = "INSERT INTO users (username, password) VALUES (?, ?)";
+        try (Connection conn = dbPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(insert)) {
+            stmt.setString(1, username);
+            stmt.setString(2, password);
+
+            stmt.executeUpdate();
+            return true;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // Trùng username (UNIQUE)
+            return false;
+        } catch (SQLException e) {
+            throw new StoreException("Could not register " + username, e);
+        }
+    }
+
+    @Override
+    public UserStatsCache.UserStats loadUserStats(String username) throws StoreException {
+        String query = "SELECT total_score, games_played, games_won FROM users WHERE username = ?";
+        try (Connection conn = dbPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, username);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new UserStatsCache.UserStats(rs.getInt("total_score"), rs.getInt("games_played"), rs.getInt("games_won"));
+                }
+                return null;
+            }
+        } catch (SQLException e) {
+            throw new StoreException("Could not load stats of " + username, e);
+        }
+    }
+
+    @Override
+    public Map<String, UserStatsCache.UserStats> loadRankedUsers() throws StoreException {
+        String query = "SELECT username, total_score, games_played, games_won FROM users WHERE games_played > 0";
+        try (Connection conn = dbPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query);
+             ResultSet rs = stmt.executeQuery()) {
+            Map<String, UserStatsCache.UserStats> users = new HashMap<>();
+            while (rs.next()) {
+                users.put(rs.getString("username"), new UserStatsCache.UserStats(rs.getInt("total_score"),
+                        rs.getInt("games_played"), rs.getInt("games_won")));
+            }
+            return users;
+        } catch (SQLException e) {
+            throw new StoreException("Could not load ranked users", e);
+        }
+    }
+
+    /**
+     * Một giao dịch: batch INSERT kết quả, rồi mỗi người chơi một UPDATE đã cộng dồn
+     */
+    @Override
+    public List<GameResultWriter.GameResult> saveResults(List<GameResultWriter.GameResult> results)
+            throws StoreException {
+        try (Connection conn = dbPool.getConnection()) {
+            conn.setAutoCommit(false);
+            List<GameResultWriter.GameResult> fresh = withoutStoredResults(conn, results);
+            if (fresh.isEmpty()) {
+                conn.commit();
+                return fresh;
+            }
+            try (PreparedStatement insert = conn.prepareStatement(INSERT_RESULT)) {
+                for (GameResultWriter.GameResult result : fresh) {
+                    insert.setString(1, result.getResultId());
+                    insert.setString(2, result.getGameId());
+                    insert.setString(3, result.getPlayer1());
+                    insert.setString(4, result.getPlayer2());
+                    insert.setString(5, result.getWinner());
+                    insert.setInt(6, result.getScore1());
+                    insert.setInt(7, result.getScore2());
+                    insert.setInt(8, result.getDuration());
+                    insert.setTimestamp(9, new Timestamp(result.getPlayedAtMillis()));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement update = conn.prepareStatement(UPDATE_STATS)) {
+                for (Map.Entry<String, GameResultWriter.StatsDelta> entry : GameResultWriter.statsDeltas(fresh).entrySet()) {
+                    GameResultWriter.StatsDelta delta = entry.getValue();
+                    update.setInt(1, delta.score);
+                    update.setInt(2, delta.games);
+                    update.setInt(3, delta.wins);
+                    update.setString(4, entry.getKey());
+                    update.addBatch();
+                }
+                update.executeBatch();
+            }
+            conn.commit();
+            return fresh;
+        } catch (SQLException e) {
+            throw new StoreException("Could not save " + results.size() + " game results", e);
+        }
+    }
+
+    /**
+     * Bỏ các kết quả đã có result_id trong game_results (và kết quả trùng trong chính lô).
+     * Hai lần ghi cùng lúc một kết quả vẫn bị index unique chặn: lô sau lỗi và được ghi lại.
+     */
+    private static List<GameResultWriter.GameResult> withoutStoredResults(Connection conn,
+            List<GameResultWriter.GameResult> results) throws SQLException {
+        Map<String, GameResultWriter.GameResult> byId = new LinkedHashMap<>();
+        for (GameResultWriter.GameResult result : results) {
+            byId.putIfAbsent(result.getResultId(), result);
+        }
+        String query = "SELECT result_id FROM game_results WHERE result_id IN ("
+                + String.join(", ", Collections.nCopies(byId.size(), "?")) + ")";
+        Set<String> stored = new HashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            for (String resultId : byId.keySet()) {
+                stmt.setString(index++, resultId);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    stored.add(rs.getString(1));
+                }
+            }
+        }
+        byId.keySet().removeAll(stored);
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Hai vế player1/player2 được tra riêng trên index (player, played_at, id) rồi gộp lại,
+     * thay cho "player1 = ? OR player2 = ?" vốn phải quét cả bảng. Có con trỏ thì mỗi vế
+     * đi thẳng tới vị trí con trỏ trên index (keyset), nên trang sâu cũng nhanh như trang đầu.
+     */
+    @Override
+    public List<MatchRecord> matchHistory(String username, long afterPlayedAtMillis, int afterId, int limit)
+            throws StoreException {
+        boolean hasCursor = afterPlayedAtMillis != NO_CURSOR;
+        String keyset = hasCursor ? " AND played_at <= ? AND (played_at < ? OR id < ?)" : "";
+        String query = """
+            SELECT id, game_id, player1, player2, winner, player1_score, player2_score,
+                   duration_seconds, played_at
+            FROM (
+                (SELECT * FROM game_results WHERE player1 = ?%s ORDER BY played_at DESC, id DESC LIMIT ?)
+                UNION ALL
+                (SELECT * FROM game_results WHERE player2 = ?%s ORDER BY played_at DESC, id DESC LIMIT ?)
+            ) AS history
+            ORDER BY played_at DESC, id DESC
+            LIMIT ?
+        """.formatted(keyset, keyset);
+
+        try (Connection conn = dbPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            Timestamp afterPlayedAt = hasCursor ? new Timestamp(afterPlayedAtMillis) : null;
+            int index = 1;
+            for (int branch = 0; branch < 2; branch++) {
+                stmt.setString(index++, username);
+                if (hasCursor) {
+                    stmt.setTimestamp(index++, afterPlayedAt);
+                    stmt.setTimestamp(index++, afterPlayedAt);
+                    stmt.setInt(index++, afterId);
+                }
+                stmt.setInt(index++, limit);
+            }
+            stmt.setInt(index, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<MatchRecord> records = new ArrayList<>();
+                while (rs.next()) {
+                    records.add(new MatchRecord(rs.getInt("id"), rs.getString("game_id"),
+                            rs.getString("player1"), rs.getString("player2"), rs.getString("winner"),
+                            rs.getInt("player1_score"), rs.getInt("player2_score"),
+                            rs.getInt("duration_seconds"), rs.getTimestamp("played_at").getTime()));
+                }
+                return records;
+            }
+        } catch (SQLException e) {
+            throw new StoreException("Could not load match history of " + username, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        dbPool.close();
+    }
+
+    @Override
+    public String summary() {
+        return dbPool.summary() + "; " + dbPool.statementCacheSummary();
+    }
+}
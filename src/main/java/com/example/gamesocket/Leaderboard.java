@@ -0,0 +1,267 @@
+package com.example.gamesocket;
+// Leaderboard.java
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bảng xếp hạng trong bộ nhớ, thay cho truy vấn ORDER BY win_rate trên cả bảng users
+ * mỗi lần có người mở bảng xếp hạng.
+ *
+ * Thứ tự giống truy vấn cũ: tỷ lệ thắng giảm dần, rồi tổng điểm giảm dần (cùng điểm thì
+ * theo tên để thứ tự ổn định). Chỉ gồm người đã chơi ít nhất một trận.
+ * Cấu trúc là skip list có đếm khoảng cách (span) giữa các nút, nên thêm/xóa/tra hạng
+ * của một người bất kỳ đều O(log n).
+ *
+ * Top 20 được dựng sẵn thành một SharedMessage và dùng lại cho mọi yêu cầu tới khi
+ * thứ hạng trong top 20 thay đổi.
+ */
+public class Leaderboard {
+    public static final int TOP_SIZE = 20;
+    private static final int MAX_LEVEL = 24;
+
+    private static final class Node {
+        private final String username;
+        private final int totalScore;
+        private final int gamesPlayed;
+        private final int gamesWon;
+        private final Node[] next;
+        private final int[] span;
+
+        Node(String username, int totalScore, int gamesPlayed, int gamesWon, int level) {
+            this.username = username;
+            this.totalScore = totalScore;
+            this.gamesPlayed = gamesPlayed;
+            this.gamesWon = gamesWon;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+
+        String winRate() {
+            return String.format("%.2f", gamesWon * 100.0 / gamesPlayed);
+        }
+    }
+
+    private final Node head = new Node(null, 0, 0, 0, MAX_LEVEL);
+    private final Map<String, Node> byUsername = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private int level = 1;
+    private int size;
+    private SharedMessage topPayload;
+    private long topRebuilds;
+
+    /**
+     * Âm nếu a đứng trên b
+     */
+    private static int compare(Node a, Node b) {
+        // So tỷ lệ thắng bằng nhân chéo để không lệch vì số thực
+        long left = (long) a.gamesWon * b.gamesPlayed;
+        long right = (long) b.gamesWon * a.gamesPlayed;
+        if (left != right) {
+            return left > right ? -1 : 1;
+        }
+        if (a.totalScore != b.totalScore) {
+            return a.totalScore > b.totalScore ? -1 : 1;
+        }
+        return a.username.compareTo(b.username);
+    }
+
+    private static int randomLevel() {
+        int level = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (level < MAX_LEVEL && random.nextInt(4) == 0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Đặt (hoặc thay) thống kê tuyệt đối của một người chơi, dùng lúc nạp từ DB
+     */
+    public void put(String username, int totalScore, int gamesPlayed, int gamesWon) {
+        lock.lock();
+        try {
+            putLocked(username, totalScore, gamesPlayed, gamesWon);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cộng kết quả vừa ghi DB vào thứ hạng của người chơi
+     */
+    public void applyResults(String username, int games, int wins, int score) {
+        lock.lock();
+        try {
+            Node current = byUsername.get(username);
+            if (current == null) {
+                // Chưa có trên bảng nghĩa là chưa chơi trận nào trước đó
+                putLocked(username, score, games, wins);
+            } else {
+                putLocked(username, current.totalScore + score, current.gamesPlayed + games, current.gamesWon + wins);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void putLocked(String username, int totalScore, int gamesPlayed, int gamesWon) {
+        Node old = byUsername.remove(username);
+        int oldRank = old == null ? Integer.MAX_VALUE : delete(old);
+        if (gamesPlayed <= 0) {
+            if (oldRank <= TOP_SIZE) {
+                invalidateTop();
+            }
+            return;
+        }
+        Node node = new Node(username, totalScore, gamesPlayed, gamesWon, randomLevel());
+        int newRank = insert(node);
+        byUsername.put(username, node);
+        if (oldRank <= TOP_SIZE || newRank <= TOP_SIZE) {
+            invalidateTop();
+        }
+    }
+
+    /**
+     * Chèn nút, trả về hạng (tính từ 1)
+     */
+    private int insert(Node node) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && compare(x.next[i], node) < 0) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int nodeLevel = node.next.length;
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = size;
+            }
+            level = nodeLevel;
+        }
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+        size++;
+        return rank[0] + 1;
+    }
+
+    /**
+     * Gỡ nút, trả về hạng nó đang giữ
+     */
+    private int delete(Node node) {
+        Node[] update = new Node[MAX_LEVEL];
+        int rank = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], node) < 0) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == node) {
+                update[i].span[i] += node.span[i] - 1;
+                update[i].next[i] = node.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        size--;
+        return rank + 1;
+    }
+
+    private int rankOf(Node node) {
+        int rank = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], node) <= 0) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+            if (x == node) {
+                return rank;
+            }
+        }
+        return 0;
+    }
+
+    private void invalidateTop() {
+        if (topPayload != null) {
+            topPayload.release();
+            topPayload = null;
+        }
+    }
+
+    /**
+     * Payload LEADERBOARD của top 20, dựng lại chỉ khi top 20 đã thay đổi.
+     * Người gọi nhận thêm một tham chiếu và phải release() sau khi gửi.
+     */
+    public SharedMessage topPayload() {
+        lock.lock();
+        try {
+            if (topPayload == null) {
+                StringBuilder leaderboard = new StringBuilder("LEADERBOARD:");
+                Node x = head.next[0];
+                for (int i = 0; i < TOP_SIZE && x != null; i++, x = x.next[0]) {
+                    leaderboard.append(x.username).append(",")
+                            .append(x.totalScore).append(",")
+                            .append(x.gamesPlayed).append(",")
+                            .append(x.gamesWon).append(",")
+                            .append(x.winRate()).append(";");
+                }
+                topPayload = SharedMessage.of(leaderboard.toString());
+                topRebuilds++;
+            }
+            topPayload.retain();
+            return topPayload;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * RANK:user,rank,totalScore,gamesPlayed,gamesWon,winRate hoặc RANK:user,0 nếu chưa có hạng
+     */
+    public String rankMessage(String username) {
+        lock.lock();
+        try {
+            Node node = byUsername.get(username);
+            if (node == null) {
+                return "RANK:" + username + ",0";
+            }
+            return "RANK:" + username + "," + rankOf(node) + "," + node.totalScore + "," + node.gamesPlayed
+                    + "," + node.gamesWon + "," + node.winRate();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String summary() {
+        lock.lock();
+        try {
+            return "Leaderboard: " + size + " ranked players, top " + TOP_SIZE + " rebuilt " + topRebuilds + " times";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package com.example.gamesocket;
+// NioServer.java
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chế độ server non-blocking: một thread accept và vài event-loop thread,
+ * mỗi loop giữ một Selector và phục vụ nhiều SocketChannel.
+ * Hỗ trợ cả giao thức text (mỗi lệnh một dòng) lẫn frame nhị phân (BinaryProtocol).
+ */
+public class NioServer {
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_LINE_LENGTH = BinaryProtocol.MAX_FRAME_LENGTH + 8;
+
+    private final GameServer server;
+    private final int port;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final long coalesceWindowNanos = TimeUnit.MILLISECONDS.toNanos(ServerConfig.coalesceWindowMillis());
+    private ServerSocketChannel serverChannel;
+
+    public NioServer(GameServer server, int port, int workerThreads) {
+        this.server = server;
+        this.port = port;
+        this.loops = new EventLoop[workerThreads];
+    }
+
+    /**
+     * Mở cổng và chạy vòng accept trên thread hiện tại (giống GameServer.start ở chế độ blocking).
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.setDaemon(true);
+            loops[i].thread = thread;
+            thread.start();
+        }
+        System.out.println("Game Server (NIO, " + loops.length + " event loops) started on port " + port);
+
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                loop.register(new Connection(channel, loop));
+            }
+        } catch (ClosedChannelException e) {
+            // stop() đã đóng server channel
+        }
+    }
+
+    public void stop() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+        // Các kết nối có lệnh chạy trên worker thread vừa xong, đọc tiếp được
+        private final Queue<Connection> pendingResumes = new ConcurrentLinkedQueue<>();
+        // Các kết nối chờ hết cửa sổ gom message mới ghi (cùng độ dài cửa sổ nên theo thứ tự thời gian)
+        private final Queue<Connection> delayedWrites = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+        private Thread thread;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(Connection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        void scheduleWrite(Connection connection) {
+            pendingWrites.add(connection);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void scheduleResume(Connection connection) {
+            pendingResumes.add(connection);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void scheduleDelayedWrite(Connection connection) {
+            delayedWrites.add(connection);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    processRegistrations();
+                    processResumes();
+                    processPendingWrites();
+                    long timeoutMillis = processDelayedWrites();
+
+                    if (timeoutMillis > 0) {
+                        selector.select(timeoutMillis);
+                    } else {
+                        selector.select();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (!key.isValid()) {
+                                connection.close();
+                                continue;
+                            }
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (RuntimeException e) {
+                            // Lỗi khi xử lý một client không được làm chết cả event loop
+                            e.printStackTrace();
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void processRegistrations() {
+            Connection connection;
+            while ((connection = pendingRegistrations.poll()) != null) {
+                try {
+                    connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void processResumes() {
+            Connection connection;
+            while ((connection = pendingResumes.poll()) != null) {
+                connection.resume();
+            }
+        }
+
+        private void processPendingWrites() {
+            Connection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                connection.flush();
+            }
+        }
+
+        /**
+         * Ghi các kết nối đã hết cửa sổ gom. Trả về số ms tới hạn kế tiếp, 0 nếu không còn kết nối nào chờ.
+         */
+        private long processDelayedWrites() {
+            Connection connection;
+            while ((connection = delayedWrites.peek()) != null) {
+                long remaining = connection.flushDeadline - System.nanoTime();
+                if (remaining > 0) {
+                    return TimeUnit.NANOSECONDS.toMillis(remaining) + 1;
+                }
+                delayedWrites.poll();
+                connection.flush();
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Một kết nối NIO: tách dòng từ dữ liệu đọc được và ghi dần hàng đợi gửi của ClientHandler.
+     * read()/flush()/close() chạy trên event loop; requestFlush()/requestClose() gọi được từ thread bất kỳ.
+     */
+    final class Connection {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final ClientHandler handler;
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean closeRequested;
+        // Đang có lệnh chạy trên worker thread: không đọc/xử lý lệnh kế tiếp (chỉ event loop đọc/ghi)
+        private boolean readsSuspended;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private ByteBuffer[] writeBatch = new ByteBuffer[8];
+        private OutboundQueue.Entry[] batchEntries = new OutboundQueue.Entry[8];
+        private int batchStart;
+        private int batchEnd;
+        private long flushDeadline;
+        private SelectionKey key;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.handler = new ClientHandler(server, this);
+            handler.start();
+        }
+
+        /**
+         * Hàng đợi gửi của ClientHandler vừa có thêm message
+         */
+        void requestFlush() {
+            if (!closed.get() && writeScheduled.compareAndSet(false, true)) {
+                if (coalesceWindowNanos > 0) {
+                    flushDeadline = System.nanoTime() + coalesceWindowNanos;
+                    loop.scheduleDelayedWrite(this);
+                } else {
+                    loop.scheduleWrite(this);
+                }
+            }
+        }
+
+        /**
+         * Đóng kết nối trên event loop (an toàn khi gọi từ thread khác)
+         */
+        void requestClose() {
+            closeRequested = true;
+            writeScheduled.set(true);
+            loop.scheduleWrite(this);
+        }
+
+        /**
+         * Gọi trên event loop khi handler chuyển một lệnh sang worker thread
+         */
+        void suspendReads() {
+            readsSuspended = true;
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Lệnh trên worker thread đã xong (gọi từ thread bất kỳ)
+         */
+        void resumeReads() {
+            loop.scheduleResume(this);
+        }
+
+        private void resume() {
+            if (closed.get()) {
+                return;
+            }
+            readsSuspended = false;
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+            // Các lệnh đã đọc về trong lúc chờ
+            processInput();
+        }
+
+        private void read() {
+            int n;
+            try {
+                n = channel.read(readBuffer);
+            } catch (IOException e) {
+                System.out.println("Client disconnected: " + handler.getUsername());
+                close();
+                return;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            processInput();
+        }
+
+        private void processInput() {
+            readBuffer.flip();
+            byte[] data = readBuffer.array();
+            int start = readBuffer.position();
+            int limit = readBuffer.limit();
+            // Chế độ có thể đổi từ text sang nhị phân giữa chừng (sau PROTOCOL:BINARY)
+            while (start < limit && !closed.get() && !readsSuspended) {
+                int next = handler.isBinaryInbound() ? processFrame(data, start, limit) : processLine(data, start, limit);
+                if (next < 0) {
+                    break;
+                }
+                start = next;
+            }
+            if (closed.get()) {
+                return;
+            }
+            readBuffer.position(start);
+            readBuffer.compact();
+
+            // Dòng chưa trọn mà buffer đã đầy: nới buffer, quá giới hạn thì ngắt kết nối
+            if (!readsSuspended && !readBuffer.hasRemaining()) {
+                if (readBuffer.capacity() >= MAX_LINE_LENGTH) {
+                    System.out.println("Line too long from " + handler.getUsername() + ", closing connection");
+                    close();
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_LINE_LENGTH));
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            }
+        }
+
+        /**
+         * Xử lý một dòng text bắt đầu tại start. Trả về vị trí sau dòng, hoặc -1 nếu dòng chưa trọn.
+         */
+        private int processLine(byte[] data, int start, int limit) {
+            for (int i = start; i < limit; i++) {
+                if (data[i] == '\n') {
+                    int lineEnd = i;
+                    if (lineEnd > start && data[lineEnd - 1] == '\r') {
+                        lineEnd--;
+                    }
+                    handler.handleLine(data, start, lineEnd);
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Xử lý một frame nhị phân bắt đầu tại start. Trả về vị trí sau frame, hoặc -1 nếu frame chưa trọn.
+         */
+        private int processFrame(byte[] data, int start, int limit) {
+            long header = BinaryProtocol.decodeVarint(data, start, limit);
+            if (header < 0) {
+                return -1;
+            }
+            int length = BinaryProtocol.varintValue(header);
+            int frameStart = BinaryProtocol.varintEnd(header);
+            if (length <= 0 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                System.out.println("Invalid frame from " + handler.getUsername() + ", closing connection");
+                close();
+                return -1;
+            }
+            if (limit - frameStart < length) {
+                return -1;
+            }
+            handler.handleBinaryFrame(data, frameStart, length);
+            return frameStart + length;
+        }
+
+        private void flush() {
+            if (closeRequested) {
+                close();
+                return;
+            }
+            if (closed.get() || key == null) {
+                return;
+            }
+            OutboundQueue outbound = handler.getOutboundQueue();
+            try {
+                while (true) {
+                    if (batchStart == batchEnd) {
+                        // Lấy hết message đang chờ, ghi chung bằng một lần gather write
+                        batchStart = 0;
+                        batchEnd = 0;
+                        OutboundQueue.Entry entry;
+                        while ((entry = outbound.poll()) != null) {
+                            if (batchEnd == writeBatch.length) {
+                                writeBatch = Arrays.copyOf(writeBatch, batchEnd * 2);
+                                batchEntries = Arrays.copyOf(batchEntries, batchEnd * 2);
+                            }
+                            // Entry giữ tham chiếu tới buffer dùng chung cho tới khi ghi xong
+                            batchEntries[batchEnd] = entry;
+                            writeBatch[batchEnd++] = ByteBuffer.wrap(handler.encodeOutbound(entry));
+                        }
+                        if (batchEnd == 0) {
+                            break;
+                        }
+                        OutboundBatch.recordMessages(batchEnd);
+                    }
+                    channel.write(writeBatch, batchStart, batchEnd - batchStart);
+                    OutboundBatch.recordSocketWrite();
+                    while (batchStart < batchEnd && !writeBatch[batchStart].hasRemaining()) {
+                        writeBatch[batchStart] = null;
+                        batchEntries[batchStart].release();
+                        batchEntries[batchStart++] = null;
+                    }
+                    if (batchStart < batchEnd) {
+                        // Socket đầy, chờ OP_WRITE rồi ghi tiếp
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                writeScheduled.set(false);
+                // Có thể đã có message mới ngay sau khi hàng đợi rỗng
+                if (!outbound.isEmpty()) {
+                    requestFlush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Đóng kết nối đúng một lần và dọn dẹp ClientHandler (logout, thoát game, rời lobby).
+         */
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (int i = batchStart; i < batchEnd; i++) {
+                batchEntries[i].release();
+            }
+            Arrays.fill(writeBatch, null);
+            Arrays.fill(batchEntries, null);
+            batchStart = 0;
+            batchEnd = 0;
+            handler.cleanup();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.gamesocket;
+// OutboundBatch.java
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gom các message sinh ra trong lúc xử lý một lệnh (ví dụ một cú click tạo ra
+ * GRAIN_RESULT, OPPONENT_GRAIN_CLICK và OPPONENT_SCORE) để mỗi người nhận chỉ
+ * bị đánh thức writer một lần và nhận tất cả trong một lần ghi socket.
+ *
+ * Cách dùng trên thread xử lý lệnh:
+ * <pre>
+ *     OutboundBatch.begin();
+ *     try { ... sendMessage(...) ... } finally { OutboundBatch.end(); }
+ * </pre>
+ */
+public final class OutboundBatch {
+    private static final ThreadLocal<OutboundBatch> CURRENT = ThreadLocal.withInitial(OutboundBatch::new);
+
+    // Thống kê toàn server: số message đã ghi và số lần gọi write xuống socket
+    private static final LongAdder messagesWritten = new LongAdder();
+    private static final LongAdder socketWrites = new LongAdder();
+
+    private final Set<OutboundQueue> deferred = new HashSet<>();
+    private int depth;
+
+    private OutboundBatch() {
+    }
+
+    public static void begin() {
+        CURRENT.get().depth++;
+    }
+
+    /**
+     * Kết thúc batch ngoài cùng: đánh thức writer của mọi hàng đợi vừa nhận message
+     */
+    public static void end() {
+        OutboundBatch batch = CURRENT.get();
+        if (--batch.depth > 0) {
+            return;
+        }
+        batch.depth = 0;
+        if (batch.deferred.isEmpty()) {
+            return;
+        }
+        OutboundQueue[] queues = batch.deferred.toArray(new OutboundQueue[0]);
+        batch.deferred.clear();
+        for (OutboundQueue queue : queues) {
+            queue.wakeUp();
+        }
+    }
+
+    /**
+     * Nếu thread hiện tại đang trong batch thì ghi nhận hàng đợi và trả về true
+     * (hàng đợi sẽ được đánh thức ở end()), ngược lại trả về false.
+     */
+    static boolean defer(OutboundQueue queue) {
+        OutboundBatch batch = CURRENT.get();
+        if (batch.depth == 0) {
+            return false;
+        }
+        batch.deferred.add(queue);
+        return true;
+    }
+
+    static void recordMessages(int count) {
+        messagesWritten.add(count);
+    }
+
+    static void recordSocketWrite() {
+        socketWrites.increment();
+    }
+
+    public static long getMessagesWritten() {
+        return messagesWritten.sum();
+    }
+
+    public static long getSocketWrites() {
+        return socketWrites.sum();
+    }
+
+    /**
+     * Số lần ghi socket tiết kiệm được so với ghi + flush từng message
+     */
+    public static long getSocketWritesSaved() {
+        return Math.max(0, messagesWritten.sum() - socketWrites.sum());
+    }
+
+    public static String summary() {
+        return "Outbound: " + getMessagesWritten() + " messages in " + getSocketWrites()
+                + " socket writes (" + getSocketWritesSaved() + " saved by coalescing)";
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.gamesocket;
+// OutboundQueue.java
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hàng đợi gửi đi có giới hạn của một client. Thread gọi sendMessage() chỉ bỏ message
+ * vào hàng đợi rồi đi tiếp; writer thread (hoặc event loop ở chế độ NIO) mới ghi ra socket.
+ * Nhờ vậy một client mạng chậm không làm nghẽn broadcast hay GameSession của người khác.
+ *
+ * Khi hàng đợi đầy, xử lý theo Policy:
+ * - DROP: bỏ các cập nhật danh sách online (PRESENCE_SNAPSHOT, USER_*) mới
+ * - MERGE: chỉ giữ bản PRESENCE_SNAPSHOT mới nhất đang chờ gửi; delta USER_* vẫn có thể bị bỏ
+ * - DISCONNECT: ngắt kết nối client chậm
+ * Delta bị bỏ không làm sai danh sách ở client: client thấy phiên bản bị hụt sẽ xin lại ảnh chụp.
+ * Message trong trận (GRAIN_RESULT, GAME_ENDED...) không bị bỏ mà được vượt capacity, nhưng chỉ tới
+ * trần cứng 2 x capacity: quá trần nghĩa là client đã ngừng đọc, và client bị ngắt kết nối.
+ */
+public class OutboundQueue {
+    public enum Policy { DROP, MERGE, DISCONNECT }
+
+    enum Kind { PRESENCE, PRESENCE_DELTA, CRITICAL, NORMAL }
+
+    private static final String[] PRESENCE_DELTA_PREFIXES = {
+            "USER_JOINED:", "USER_LEFT:", "USER_STATUS:", "USER_SCORE:"
+    };
+
+    private static final String[] CRITICAL_PREFIXES = {
+            "GRAIN_RESULT:", "GAME_ENDED:", "GAME_STARTED:", "OPPONENT_GRAIN_CLICK:", "OPPONENT_SCORE:",
+            "BUFF_ACTIVATED:", "DEBUFF_ACTIVATED:", "DEBUFF_SUCCESS:"
+    };
+
+    /**
+     * Một message chờ gửi: chuỗi riêng của client này, hoặc SharedMessage đã mã hóa sẵn
+     * dùng chung với các người nhận khác. Writer gọi release() sau khi đã ghi xong.
+     */
+    static final class Entry {
+        private String message;
+        private SharedMessage shared;
+        private final Kind kind;
+
+        Entry(String message, SharedMessage shared, Kind kind) {
+            this.message = message;
+            this.shared = shared;
+            this.kind = kind;
+        }
+
+        String message() {
+            return message;
+        }
+
+        SharedMessage shared() {
+            return shared;
+        }
+
+        void release() {
+            if (shared != null) {
+                shared.release();
+                shared = null;
+            }
+        }
+    }
+
+    private final int capacity;
+    // Trần cứng cho message trong trận
+    private final int criticalCapacity;
+    private final Policy policy;
+    private final Runnable onReady;
+    private final Runnable onOverflow;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private Entry pendingPresence;
+    private boolean closed;
+    private long droppedCount;
+    private long mergedCount;
+
+    /**
+     * @param onReady    gọi sau mỗi lần thêm message (NIO dùng để báo event loop), có thể null
+     * @param onOverflow gọi khi client quá chậm và phải bị ngắt kết nối
+     */
+    public OutboundQueue(int capacity, Policy policy, Runnable onReady, Runnable onOverflow) {
+        this.capacity = capacity;
+        this.criticalCapacity = (int) Math.min(Integer.MAX_VALUE, 2L * capacity);
+        this.policy = policy;
+        this.onReady = onReady;
+        this.onOverflow = onOverflow;
+    }
+
+    static Kind classify(String message) {
+        if (message.startsWith("PRESENCE_SNAPSHOT:")) {
+            return Kind.PRESENCE;
+        }
+        for (String prefix : PRESENCE_DELTA_PREFIXES) {
+            if (message.startsWith(prefix)) {
+                return Kind.PRESENCE_DELTA;
+            }
+        }
+        for (String prefix : CRITICAL_PREFIXES) {
+            if (message.startsWith(prefix)) {
+                return Kind.CRITICAL;
+            }
+        }
+        return Kind.NORMAL;
+    }
+
+    /**
+     * Thêm message vào hàng đợi. Trả về false nếu message bị bỏ hoặc client bị ngắt.
+     */
+    public boolean offer(String message) {
+        return offer(message, null, classify(message));
+    }
+
+    /**
+     * Thêm message dùng chung. Hàng đợi giữ một tham chiếu tới khi writer ghi xong.
+     */
+    public boolean offer(SharedMessage shared) {
+        if (!shared.retain()) {
+            return false;
+        }
+        boolean accepted = offer(shared.text(), shared, shared.kind());
+        if (!accepted) {
+            shared.release();
+        }
+        return accepted;
+    }
+
+    private boolean offer(String message, SharedMessage shared, Kind kind) {
+        boolean overflow = false;
+        boolean accepted = false;
+        // Đang trong OutboundBatch thì chưa đánh thức writer, đợi batch kết thúc
+        boolean notify = !OutboundBatch.defer(this);
+
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (kind == Kind.PRESENCE && policy == Policy.MERGE && pendingPresence != null) {
+                // Danh sách online là ảnh chụp trạng thái, chỉ cần gửi bản mới nhất
+                pendingPresence.release();
+                pendingPresence.message = message;
+                pendingPresence.shared = shared;
+                mergedCount++;
+                return true;
+            }
+
+            if (queue.size() < capacity) {
+                accepted = true;
+            } else if (kind == Kind.CRITICAL) {
+                if (queue.size() < criticalCapacity || removeOldestPresence()) {
+                    accepted = true;
+                } else {
+                    // Quá trần cứng: client không còn đọc message trong trận nữa
+                    overflow = true;
+                }
+            } else if (policy == Policy.DISCONNECT) {
+                overflow = true;
+            } else if (kind == Kind.PRESENCE || kind == Kind.PRESENCE_DELTA) {
+                droppedCount++;
+            } else if (removeOldestPresence()) {
+                accepted = true;
+            } else {
+                // Hàng đợi đầy message thường: client không theo kịp nữa
+                overflow = true;
+            }
+
+            if (accepted) {
+                Entry entry = new Entry(message, shared, kind);
+                queue.addLast(entry);
+                if (kind == Kind.PRESENCE) {
+                    pendingPresence = entry;
+                }
+                if (notify) {
+                    notEmpty.signal();
+                }
+            } else if (overflow) {
+                closed = true;
+                clearLocked();
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (overflow) {
+            onOverflow.run();
+        } else if (accepted && notify && onReady != null) {
+            onReady.run();
+        }
+        return accepted;
+    }
+
+    /**
+     * Đánh thức writer (gọi khi OutboundBatch kết thúc)
+     */
+    void wakeUp() {
+        lock.lock();
+        try {
+            if (queue.isEmpty()) {
+                return;
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (onReady != null) {
+            onReady.run();
+        }
+    }
+
+    private boolean removeOldestPresence() {
+        Iterator<Entry> it = queue.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.kind == Kind.PRESENCE || entry.kind == Kind.PRESENCE_DELTA) {
+                it.remove();
+                if (entry == pendingPresence) {
+                    pendingPresence = null;
+                }
+                entry.release();
+                droppedCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lấy message kế tiếp, không chờ. Trả về null nếu hàng đợi rỗng.
+     */
+    Entry poll() {
+        lock.lock();
+        try {
+            return pollLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Chờ tới khi có message. Trả về null khi hàng đợi đã đóng.
+     */
+    Entry take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return pollLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry pollLocked() {
+        Entry entry = queue.pollFirst();
+        if (entry == pendingPresence) {
+            pendingPresence = null;
+        }
+        return entry;
+    }
+
+    private void clearLocked() {
+        for (Entry entry : queue) {
+            entry.release();
+        }
+        queue.clear();
+        pendingPresence = null;
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            clearLocked();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMergedCount() {
+        lock.lock();
+        try {
+            return mergedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
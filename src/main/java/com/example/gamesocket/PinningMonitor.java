@@ -0,0 +1,63 @@
+package com.example.gamesocket;
+// PinningMonitor.java
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Theo dõi sự kiện JFR jdk.VirtualThreadPinned: mỗi lần một virtual thread bị ghim
+ * vào carrier thread (synchronized, native frame...) lâu hơn ngưỡng sẽ được in ra
+ * kèm vài frame đầu của stack để tìm ra chỗ cần sửa.
+ */
+public class PinningMonitor {
+    private static final int MAX_FRAMES = 8;
+
+    private final AtomicLong pinnedEvents = new AtomicLong();
+    private final AtomicLong pinnedNanos = new AtomicLong();
+    private RecordingStream stream;
+
+    public void start(long thresholdMillis) {
+        stream = new RecordingStream();
+        stream.enable("jdk.VirtualThreadPinned").withStackTrace().withThreshold(Duration.ofMillis(thresholdMillis));
+        stream.onEvent("jdk.VirtualThreadPinned", event -> {
+            long count = pinnedEvents.incrementAndGet();
+            pinnedNanos.addAndGet(event.getDuration().toNanos());
+
+            StringBuilder report = new StringBuilder("[PINNING] #").append(count)
+                    .append(" carrier pinned for ").append(event.getDuration().toMillis()).append(" ms");
+            RecordedStackTrace stackTrace = event.getStackTrace();
+            if (stackTrace != null) {
+                List<RecordedFrame> frames = stackTrace.getFrames();
+                for (int i = 0; i < Math.min(MAX_FRAMES, frames.size()); i++) {
+                    RecordedFrame frame = frames.get(i);
+                    report.append("\n    at ").append(frame.getMethod().getType().getName())
+                            .append('.').append(frame.getMethod().getName())
+                            .append(':').append(frame.getLineNumber());
+                }
+            }
+            System.out.println(report);
+        });
+        stream.startAsync();
+        System.out.println("Virtual thread pinning report enabled (threshold " + thresholdMillis + " ms)");
+    }
+
+    public long getPinnedEvents() {
+        return pinnedEvents.get();
+    }
+
+    public String summary() {
+        return "Pinned events: " + pinnedEvents.get()
+                + ", total pinned time: " + Duration.ofNanos(pinnedNanos.get()).toMillis() + " ms";
+    }
+
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+            System.out.println(summary());
+        }
+    }
+}
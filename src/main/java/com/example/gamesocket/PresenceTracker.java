@@ -0,0 +1,238 @@
+package com.example.gamesocket;
+// PresenceTracker.java
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * Danh sách người chơi online theo kiểu delta: client lấy một ảnh chụp (PRESENCE_SNAPSHOT)
+ * rồi chỉ nhận các thay đổi nhỏ USER_JOINED / USER_LEFT / USER_STATUS / USER_SCORE,
+ * thay vì nhận lại cả danh sách mỗi khi có ai đổi trạng thái.
+ *
+ * Thay đổi không được gửi ngay mà chỉ đánh dấu user là "dirty"; tối đa mỗi
+ * game.server.presenceDebounceMs mới phát một lần, so trạng thái hiện tại với trạng thái
+ * đã báo cho client. Nhờ vậy một loạt thay đổi dồn dập (lobby bắt đầu, nhiều người đăng nhập
+ * cùng lúc, vào rồi ra ngay) chỉ sinh ra các delta cuối cùng, và độ trễ không quá một chu kỳ.
+ *
+ * Điểm không được đẩy vào đây mà đọc từ UserStatsCache lúc phát delta cho user vừa đổi.
+ *
+ * Mỗi delta có số phiên bản tăng dần. Ảnh chụp và delta được tạo và đưa vào hàng đợi
+ * gửi dưới cùng một lock nên mỗi client nhận chúng đúng thứ tự phiên bản; client thấy
+ * phiên bản bị hụt (delta bị bỏ vì hàng đợi đầy) thì xin lại ảnh chụp.
+ *
+ * Định dạng:
+ * PRESENCE_SNAPSHOT:version:user,score,status;user,score,status;...
+ * USER_JOINED:version:user,score,status
+ * USER_LEFT:version:user
+ * USER_STATUS:version:user,status
+ * USER_SCORE:version:user,score
+ */
+public class PresenceTracker {
+    private static final class Entry {
+        private int score;
+        private boolean busy;
+
+        Entry(int score, boolean busy) {
+            this.score = score;
+            this.busy = busy;
+        }
+    }
+
+    private final TimingWheel timers;
+    private final Collection<ClientHandler> clients;
+    private final ToIntFunction<String> scores;
+    private final long debounceMillis;
+    // Trạng thái hiện tại và trạng thái client đã được báo (tới phiên bản version)
+    private final Map<String, Entry> users = new LinkedHashMap<>();
+    private final Map<String, Entry> published = new HashMap<>();
+    private final Set<String> dirty = new LinkedHashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long version;
+    private boolean flushScheduled;
+    private long changesRecorded;
+    private long deltasSent;
+    private long flushes;
+
+    /**
+     * @param clients các client đang online (view sống của danh sách trên GameServer)
+     * @param scores  điểm hiện tại của user (đọc từ cache, không được chờ DB)
+     */
+    public PresenceTracker(TimingWheel timers, Collection<ClientHandler> clients, ToIntFunction<String> scores) {
+        this.timers = timers;
+        this.clients = clients;
+        this.scores = scores;
+        this.debounceMillis = ServerConfig.presenceDebounceMillis();
+    }
+
+    private static String status(boolean busy) {
+        return busy ? "BUSY" : "FREE";
+    }
+
+    public void userJoined(String username, boolean busy) {
+        lock.lock();
+        try {
+            users.put(username, new Entry(0, busy));
+            markDirty(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void userLeft(String username) {
+        lock.lock();
+        try {
+            if (users.remove(username) == null) {
+                return;
+            }
+            markDirty(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void statusChanged(String username, boolean busy) {
+        lock.lock();
+        try {
+            Entry entry = users.get(username);
+            if (entry == null || entry.busy == busy) {
+                return;
+            }
+            entry.busy = busy;
+            markDirty(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Điểm trong cache vừa đổi; điểm mới được đọc lại lúc phát delta
+     */
+    public void scoreChanged(String username) {
+        lock.lock();
+        try {
+            if (!users.containsKey(username)) {
+                return;
+            }
+            markDirty(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gửi ảnh chụp hiện tại cho một client (khi mới vào sảnh hoặc khi client xin đồng bộ lại).
+     * Các thay đổi đang chờ được phát trước để ảnh chụp khớp đúng với số phiên bản.
+     */
+    public void sendSnapshot(ClientHandler client) {
+        lock.lock();
+        try {
+            flushLocked();
+            StringBuilder snapshot = new StringBuilder("PRESENCE_SNAPSHOT:").append(version).append(':');
+            for (Map.Entry<String, Entry> user : users.entrySet()) {
+                Entry entry = user.getValue();
+                snapshot.append(user.getKey()).append(',').append(entry.score).append(',')
+                        .append(status(entry.busy)).append(';');
+            }
+            client.sendMessage(snapshot.toString());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getVersion() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void markDirty(String username) {
+        changesRecorded++;
+        dirty.add(username);
+        if (debounceMillis == 0) {
+            flushLocked();
+        } else if (!flushScheduled) {
+            // Hẹn giờ tính từ thay đổi đầu tiên, không gia hạn khi có thêm thay đổi
+            flushScheduled = true;
+            timers.schedule(this::flush, debounceMillis);
+        }
+    }
+
+    private void flush() {
+        // Mỗi người nhận được đánh thức writer một lần cho cả loạt delta
+        OutboundBatch.begin();
+        lock.lock();
+        try {
+            flushLocked();
+        } finally {
+            lock.unlock();
+            OutboundBatch.end();
+        }
+    }
+
+    private void flushLocked() {
+        flushScheduled = false;
+        if (dirty.isEmpty()) {
+            return;
+        }
+        flushes++;
+        for (String username : dirty) {
+            Entry current = users.get(username);
+            Entry sent = published.get(username);
+            if (current != null) {
+                current.score = scores.applyAsInt(username);
+            }
+            if (current == null) {
+                if (sent != null) {
+                    published.remove(username);
+                    broadcast("USER_LEFT:" + (++version) + ":" + username);
+                }
+                // Vào rồi ra trong cùng một chu kỳ: không ai cần biết
+            } else if (sent == null) {
+                published.put(username, new Entry(current.score, current.busy));
+                broadcast("USER_JOINED:" + (++version) + ":" + username + "," + current.score + "," + status(current.busy));
+            } else {
+                if (sent.busy != current.busy) {
+                    sent.busy = current.busy;
+                    broadcast("USER_STATUS:" + (++version) + ":" + username + "," + status(current.busy));
+                }
+                if (sent.score != current.score) {
+                    sent.score = current.score;
+                    broadcast("USER_SCORE:" + (++version) + ":" + username + "," + current.score);
+                }
+            }
+        }
+        dirty.clear();
+    }
+
+    private void broadcast(String message) {
+        deltasSent++;
+        // Mã hóa một lần, mọi client ghi chung một buffer
+        SharedMessage shared = SharedMessage.of(message);
+        try {
+            for (ClientHandler client : clients) {
+                client.sendShared(shared);
+            }
+        } finally {
+            shared.release();
+        }
+    }
+
+    public String summary() {
+        lock.lock();
+        try {
+            return "Presence: version " + version + ", " + changesRecorded + " changes sent as " + deltasSent
+                    + " deltas in " + flushes + " flushes (" + Math.max(0, changesRecorded - deltasSent)
+                    + " collapsed)";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.gamesocket;
+// RateLimiter.java
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Giới hạn tốc độ gửi lệnh của một kết nối, mỗi nhóm lệnh một token bucket riêng:
+ * GAME_ACTION, chat (PRIVATE_MESSAGE) và các lệnh còn lại.
+ * Lệnh vượt giới hạn bị bỏ trước khi dispatch; bỏ quá nhiều thì kết nối bị coi là flood.
+ *
+ * Không khóa, không cấp phát gì cho mỗi message: mỗi bucket chỉ là một AtomicLong.
+ */
+public class RateLimiter {
+    public static final int GAME_ACTION = 0;
+    public static final int CHAT = 1;
+    public static final int OTHER = 2;
+
+    // Thống kê toàn server
+    private static final LongAdder droppedCommands = new LongAdder();
+    private static final LongAdder floodDisconnects = new LongAdder();
+
+    /**
+     * Token bucket dạng GCRA: chỉ lưu "thời điểm bucket đầy trở lại" (theoretical arrival time).
+     * Mỗi token đẩy thời điểm này lùi thêm một khoảng emissionNanos; nếu nó vượt quá
+     * hiện tại + burst thì bucket đã cạn.
+     */
+    static final class Bucket {
+        private final long emissionNanos;
+        private final long burstNanos;
+        private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+        /**
+         * @param ratePerSecond số token được nạp lại mỗi giây
+         * @param burst         số token tối đa dùng liền một lúc
+         */
+        Bucket(double ratePerSecond, int burst) {
+            this.emissionNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+            this.burstNanos = emissionNanos * Math.max(0, burst - 1);
+        }
+
+        boolean tryAcquire(long nowNanos) {
+            while (true) {
+                long tat = theoreticalArrival.get();
+                long start = tat - nowNanos > 0 ? tat : nowNanos;
+                if (start - nowNanos > burstNanos) {
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(tat, start + emissionNanos)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final Bucket[] buckets = {
+            new Bucket(ServerConfig.gameActionRate(), ServerConfig.gameActionBurst()),
+            new Bucket(ServerConfig.chatRate(), ServerConfig.chatBurst()),
+            new Bucket(ServerConfig.commandRate(), ServerConfig.commandBurst())
+    };
+    // Mỗi lệnh bị bỏ tiêu một token ở đây; cạn thì client bị ngắt vì flood
+    private final Bucket violations = new Bucket(ServerConfig.floodViolationRate(), ServerConfig.floodViolationBurst());
+
+    /**
+     * Nhóm lệnh của một mã lệnh trong CommandParser
+     */
+    public static int commandClass(int command) {
+        switch (command) {
+            case CommandParser.GAME_ACTION:
+                return GAME_ACTION;
+            case CommandParser.PRIVATE_MESSAGE:
+                return CHAT;
+            default:
+                return OTHER;
+        }
+    }
+
+    /**
+     * Trả về true nếu lệnh thuộc nhóm commandClass được phép xử lý
+     */
+    public boolean tryAcquire(int commandClass) {
+        if (buckets[commandClass].tryAcquire(System.nanoTime())) {
+            return true;
+        }
+        droppedCommands.increment();
+        return false;
+    }
+
+    /**
+     * Ghi nhận một lệnh bị bỏ. Trả về true nếu client đã vượt ngưỡng flood và phải bị ngắt.
+     */
+    public boolean recordViolation() {
+        if (violations.tryAcquire(System.nanoTime())) {
+            return false;
+        }
+        floodDisconnects.increment();
+        return true;
+    }
+
+    public static long getDroppedCommands() {
+        return droppedCommands.sum();
+    }
+
+    public static long getFloodDisconnects() {
+        return floodDisconnects.sum();
+    }
+
+    public static String summary() {
+        return "Rate limit: " + getDroppedCommands() + " commands dropped, "
+                + getFloodDisconnects() + " clients disconnected for flooding";
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.gamesocket;
+// SchemaMigrator.java
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Chạy các bước thay đổi schema theo phiên bản lúc server khởi động.
+ *
+ * Phiên bản đã áp dụng được lưu trong bảng schema_version; mỗi lần khởi động chỉ chạy
+ * các bước có phiên bản lớn hơn. Muốn đổi schema thì thêm một Migration mới vào cuối
+ * MIGRATIONS, không sửa các bước đã phát hành.
+ *
+ * MySQL tự commit sau mỗi câu DDL nên một bước không thể rollback trọn vẹn; vì vậy phiên bản
+ * được ghi ngay sau khi từng bước chạy xong, và bước lỗi sẽ dừng việc migrate tại đó.
+ */
+public class SchemaMigrator {
+
+    private static final class Migration {
+        private final int version;
+        private final String description;
+        private final List<String> statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = List.of(statements);
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            // Bảng gốc; IF NOT EXISTS để DB tạo trước khi có schema_version vẫn nâng cấp được
+            new Migration(1, "create users and game_results",
+                    """
+                    CREATE TABLE IF NOT EXISTS users (
+                        id INT PRIMARY KEY AUTO_INCREMENT,
+                        username VARCHAR(50) UNIQUE NOT NULL,
+                        password VARCHAR(100) NOT NULL,
+                        total_score INT DEFAULT 0,
+                        games_played INT DEFAULT 0,
+                        games_won INT DEFAULT 0,
+                        created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """,
+                    """
+                    CREATE TABLE IF NOT EXISTS game_results (
+                        id INT PRIMARY KEY AUTO_INCREMENT,
+                        game_id VARCHAR(50) NOT NULL,
+                        player1 VARCHAR(50) NOT NULL,
+                        player2 VARCHAR(50) NOT NULL,
+                        winner VARCHAR(50),
+                        player1_score INT DEFAULT 0,
+                        player2_score INT DEFAULT 0,
+                        duration_seconds INT DEFAULT 0,
+                        played_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """),
+            // Lịch sử đấu tra theo từng vế player1/player2, đã sắp sẵn theo thời gian (id để phân định cùng thời điểm)
+            new Migration(2, "index game_results by player and played_at",
+                    "CREATE INDEX idx_game_results_player1_played ON game_results (player1, played_at, id)",
+                    "CREATE INDEX idx_game_results_player2_played ON game_results (player2, played_at, id)"),
+            // Định danh duy nhất của kết quả: ghi lại một lô từ file spill không tạo bản ghi trùng
+            new Migration(3, "add unique result_id to game_results",
+                    "ALTER TABLE game_results ADD COLUMN result_id VARCHAR(36) NULL",
+                    "CREATE UNIQUE INDEX uq_game_results_result_id ON game_results (result_id)")
+    );
+
+    private final ConnectionPool pool;
+
+    public SchemaMigrator(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Đưa schema lên phiên bản mới nhất
+     */
+    public void migrate() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS schema_version (
+                        version INT PRIMARY KEY,
+                        description VARCHAR(200) NOT NULL,
+                        applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                    )
+                """);
+            }
+
+            int current = currentVersion(conn);
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version <= current) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                try (Statement stmt = conn.createStatement()) {
+                    for (String sql : migration.statements) {
+                        stmt.execute(sql);
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+                    stmt.setInt(1, migration.version);
+                    stmt.setString(2, migration.description);
+                    stmt.executeUpdate();
+                }
+                System.out.println("Schema migrated to version " + migration.version + " (" + migration.description
+                        + ") in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        }
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
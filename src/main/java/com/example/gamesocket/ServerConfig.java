@@ -0,0 +1,287 @@
+package com.example.gamesocket;
+
+/**
+ * Cấu hình server, đọc từ system properties (-Dgame.xxx=...).
+ * Không truyền gì thì server chạy đúng như trước (blocking, mỗi client một thread).
+ */
+public final class ServerConfig {
+
+    public enum ConnectionMode { BLOCKING, NIO, VIRTUAL }
+
+    public enum StoreType { JDBC, FILE }
+
+    private ServerConfig() {
+    }
+
+    /**
+     * -Dgame.server.mode=blocking|nio|virtual
+     */
+    public static ConnectionMode connectionMode() {
+        String mode = System.getProperty("game.server.mode", "blocking");
+        return ConnectionMode.valueOf(mode.trim().toUpperCase());
+    }
+
+    /**
+     * Số event-loop thread của chế độ NIO (-Dgame.server.nioWorkers=N)
+     */
+    public static int nioWorkerThreads() {
+        int defaultWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return Math.max(1, Integer.getInteger("game.server.nioWorkers", defaultWorkers));
+    }
+
+    /**
+     * Số shard thread xử lý sự kiện của các trận đấu (-Dgame.server.sessionShards=N)
+     */
+    public static int sessionShards() {
+        int defaultShards = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return Math.max(1, Integer.getInteger("game.server.sessionShards", defaultShards));
+    }
+
+    /**
+     * Ở chế độ virtual: báo cáo các lần virtual thread bị ghim vào carrier thread
+     * (-Dgame.server.pinningReport=false để tắt)
+     */
+    public static boolean pinningReportEnabled() {
+        return Boolean.parseBoolean(System.getProperty("game.server.pinningReport", "true"));
+    }
+
+    /**
+     * Chỉ báo cáo các lần bị ghim lâu hơn ngưỡng này (-Dgame.server.pinningThresholdMs)
+     */
+    public static long pinningThresholdMillis() {
+        return Long.getLong("game.server.pinningThresholdMs", 20);
+    }
+
+    /**
+     * Số message tối đa chờ gửi cho mỗi client (-Dgame.server.outboundCapacity)
+     */
+    public static int outboundCapacity() {
+        return Math.max(1, Integer.getInteger("game.server.outboundCapacity", 256));
+    }
+
+    /**
+     * Cách xử lý client đọc chậm khi hàng đợi gửi đầy (-Dgame.server.slowConsumerPolicy=drop|merge|disconnect)
+     */
+    public static OutboundQueue.Policy slowConsumerPolicy() {
+        String policy = System.getProperty("game.server.slowConsumerPolicy", "merge");
+        return OutboundQueue.Policy.valueOf(policy.trim().toUpperCase());
+    }
+
+    /**
+     * Writer chờ thêm tối đa chừng này ms để gom message trước khi ghi socket
+     * (-Dgame.server.coalesceWindowMs, mặc định 0 = chỉ gom theo từng lệnh)
+     */
+    public static long coalesceWindowMillis() {
+        return Math.max(0, Long.getLong("game.server.coalesceWindowMs", 0));
+    }
+
+    /**
+     * Chu kỳ in thống kê server ra log (-Dgame.server.statsIntervalSec, 0 = tắt)
+     */
+    public static long statsIntervalSeconds() {
+        return Math.max(0, Long.getLong("game.server.statsIntervalSec", 60));
+    }
+
+    /**
+     * Server gửi PING khi không nhận được gì từ client trong khoảng này
+     * (-Dgame.server.heartbeatIntervalSec, 0 = tắt heartbeat và idle reaper)
+     */
+    public static long heartbeatIntervalSeconds() {
+        return Math.max(0, Long.getLong("game.server.heartbeatIntervalSec", 15));
+    }
+
+    /**
+     * Không nhận được gì (kể cả PONG) trong khoảng này thì coi như client đã chết
+     * và ngắt kết nối (-Dgame.server.idleTimeoutSec)
+     */
+    public static long idleTimeoutSeconds() {
+        return Math.max(1, Long.getLong("game.server.idleTimeoutSec", 45));
+    }
+
+    /**
+     * Số GAME_ACTION tối đa mỗi giây và số lệnh được gửi dồn một lúc
+     * (-Dgame.server.rate.gameAction, -Dgame.server.rate.gameActionBurst)
+     */
+    public static int gameActionRate() {
+        return Math.max(1, Integer.getInteger("game.server.rate.gameAction", 20));
+    }
+
+    public static int gameActionBurst() {
+        return Math.max(1, Integer.getInteger("game.server.rate.gameActionBurst", 40));
+    }
+
+    /**
+     * Giới hạn PRIVATE_MESSAGE (-Dgame.server.rate.chat, -Dgame.server.rate.chatBurst)
+     */
+    public static int chatRate() {
+        return Math.max(1, Integer.getInteger("game.server.rate.chat", 5));
+    }
+
+    public static int chatBurst() {
+        return Math.max(1, Integer.getInteger("game.server.rate.chatBurst", 10));
+    }
+
+    /**
+     * Giới hạn các lệnh còn lại (-Dgame.server.rate.command, -Dgame.server.rate.commandBurst)
+     */
+    public static int commandRate() {
+        return Math.max(1, Integer.getInteger("game.server.rate.command", 10));
+    }
+
+    public static int commandBurst() {
+        return Math.max(1, Integer.getInteger("game.server.rate.commandBurst", 30));
+    }
+
+    /**
+     * Số lệnh bị bỏ cho phép mỗi giây và dồn một lúc trước khi client bị ngắt vì flood
+     * (-Dgame.server.rate.floodViolations, -Dgame.server.rate.floodViolationBurst)
+     */
+    public static int floodViolationRate() {
+        return Math.max(1, Integer.getInteger("game.server.rate.floodViolations", 10));
+    }
+
+    public static int floodViolationBurst() {
+        return Math.max(1, Integer.getInteger("game.server.rate.floodViolationBurst", 100));
+    }
+
+    /**
+     * Thay đổi danh sách online được gom lại và phát tối đa một lần mỗi khoảng này
+     * (-Dgame.server.presenceDebounceMs, 0 = phát ngay từng thay đổi)
+     */
+    public static long presenceDebounceMillis() {
+        return Math.max(0, Long.getLong("game.server.presenceDebounceMs", 100));
+    }
+
+    /**
+     * Thống kê người chơi trong cache cũ hơn khoảng này được nạp lại từ DB ở thread nền
+     * khi được đọc (-Dgame.server.statsCacheTtlSec, 0 = không hết hạn)
+     */
+    public static long userStatsTtlSeconds() {
+        return Math.max(0, Long.getLong("game.server.statsCacheTtlSec", 300));
+    }
+
+    /**
+     * Số kết nối DB tối đa trong pool (-Dgame.server.db.poolSize)
+     */
+    public static int dbPoolSize() {
+        return Math.max(1, Integer.getInteger("game.server.db.poolSize", 10));
+    }
+
+    /**
+     * Thời gian chờ tối đa để mượn kết nối khi pool đã hết (-Dgame.server.db.acquireTimeoutMs)
+     */
+    public static long dbAcquireTimeoutMillis() {
+        return Math.max(1, Long.getLong("game.server.db.acquireTimeoutMs", 5000));
+    }
+
+    /**
+     * Tuổi tối đa của một kết nối trước khi bị thay mới (-Dgame.server.db.maxLifetimeSec)
+     */
+    public static long dbMaxLifetimeSeconds() {
+        return Math.max(1, Long.getLong("game.server.db.maxLifetimeSec", 1800));
+    }
+
+    /**
+     * Kết nối rảnh lâu hơn khoảng này được kiểm tra isValid() trước khi cho mượn
+     * (-Dgame.server.db.validationIntervalSec)
+     */
+    public static long dbValidationIntervalSeconds() {
+        return Math.max(0, Long.getLong("game.server.db.validationIntervalSec", 30));
+    }
+
+    /**
+     * Số PreparedStatement giữ lại trên mỗi kết nối trong pool (-Dgame.server.db.statementCacheSize, 0 = tắt)
+     */
+    public static int dbStatementCacheSize() {
+        return Math.max(0, Integer.getInteger("game.server.db.statementCacheSize", 32));
+    }
+
+    /**
+     * Số kết quả trận tối đa chờ ghi DB; đầy thì ghi ra file spill (-Dgame.server.results.queueCapacity)
+     */
+    public static int resultQueueCapacity() {
+        return Math.max(1, Integer.getInteger("game.server.results.queueCapacity", 10000));
+    }
+
+    /**
+     * Số kết quả tối đa ghi chung một giao dịch (-Dgame.server.results.batchSize)
+     */
+    public static int resultBatchSize() {
+        return Math.max(1, Integer.getInteger("game.server.results.batchSize", 200));
+    }
+
+    /**
+     * Thread ghi thức dậy ít nhất mỗi khoảng này để thử ghi lại file spill (-Dgame.server.results.flushIntervalMs)
+     */
+    public static long resultFlushIntervalMillis() {
+        return Math.max(1, Long.getLong("game.server.results.flushIntervalMs", 500));
+    }
+
+    /**
+     * Sau khi DB lỗi, đợi khoảng này rồi mới thử ghi DB lại (-Dgame.server.results.retryIntervalSec)
+     */
+    public static long resultRetryIntervalSeconds() {
+        return Math.max(0, Long.getLong("game.server.results.retryIntervalSec", 5));
+    }
+
+    /**
+     * File lưu tạm kết quả trận khi DB chậm hoặc không ghi được (-Dgame.server.results.spillFile)
+     */
+    public static String resultSpillFile() {
+        return System.getProperty("game.server.results.spillFile", "game-results.spill");
+    }
+
+    /**
+     * Bàn chơi của các trận mới (-Dgame.server.board.grains, mặc định 100 hạt như bàn cổ điển).
+     * Số gạo, buff, debuff và điểm thắng mặc định theo tỉ lệ của bàn cổ điển, có thể đặt riêng qua
+     * -Dgame.server.board.rice, .buffs, .debuffs, .targetScore (dùng cho các chế độ sự kiện bàn lớn).
+     */
+    public static BoardLayout.Params boardParams() {
+        int grains = Integer.getInteger("game.server.board.grains", BoardLayout.Params.CLASSIC.getTotalGrains());
+        BoardLayout.Params scaled = BoardLayout.Params.scaled(grains);
+        return new BoardLayout.Params(grains,
+                Integer.getInteger("game.server.board.rice", scaled.getRiceCount()),
+                Integer.getInteger("game.server.board.buffs", scaled.getBuffCount()),
+                Integer.getInteger("game.server.board.debuffs", scaled.getDebuffCount()),
+                Integer.getInteger("game.server.board.targetScore", scaled.getTargetScore()));
+    }
+
+    /**
+     * Số hạt tối đa người chơi được chọn khi mời đấu "INVITE:user:hạt" (-Dgame.server.board.maxGrains)
+     */
+    public static int boardMaxGrains() {
+        return Math.max(1, Integer.getInteger("game.server.board.maxGrains", 10000));
+    }
+
+    /**
+     * Nơi lưu dữ liệu (-Dgame.server.store=jdbc|file): MySQL qua JDBC, hoặc file log nhúng cho máy đơn
+     */
+    public static StoreType storeType() {
+        String store = System.getProperty("game.server.store", "jdbc");
+        return StoreType.valueOf(store.trim().toUpperCase());
+    }
+
+    /**
+     * File log của store nhúng (-Dgame.server.store.file)
+     */
+    public static String storeFile() {
+        return System.getProperty("game.server.store.file", "game-store.log");
+    }
+
+    /**
+     * Kết nối MySQL (-Dgame.server.db.url, -Dgame.server.db.user, -Dgame.server.db.password).
+     * useServerPrepStmts để PreparedStatement được prepare trên server, nhờ đó cache statement của
+     * ConnectionPool tiết kiệm được cả lượt prepare lẫn việc phân tích lại câu SQL.
+     */
+    public static String dbUrl() {
+        return System.getProperty("game.server.db.url", "jdbc:mysql://localhost:3306/rice_game?useServerPrepStmts=true");
+    }
+
+    public static String dbUser() {
+        return System.getProperty("game.server.db.user", "root");
+    }
+
+    public static String dbPassword() {
+        return System.getProperty("game.server.db.password", "123456");
+    }
+}
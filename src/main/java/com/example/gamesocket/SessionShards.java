@@ -0,0 +1,266 @@
+package com.example.gamesocket;
+// SessionShards.java
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mô hình actor cho các trận đấu: mỗi GameSession có một Mailbox, mọi sự kiện của trận
+ * (click, buff/debuff, thoát, hết giờ) được bỏ vào mailbox rồi chạy lần lượt trên một shard thread.
+ *
+ * Một trận luôn được gắn với cùng một shard (theo hash của game ID) và mailbox chỉ được một
+ * thread xử lý tại một thời điểm, nên trạng thái của trận không cần khóa. Mỗi lượt một mailbox
+ * chạy tối đa EVENTS_PER_TURN sự kiện rồi nhường cho trận khác trên cùng shard.
+ *
+ * Click là sự kiện nhiều nhất nên không đi qua hàng đợi sự kiện: trận tự giữ click trong hàng đợi
+ * riêng và chỉ gọi signal(). signal() và hàng đợi mailbox sẵn sàng của shard (danh sách móc nối
+ * qua chính các Mailbox) không cấp phát bộ nhớ.
+ *
+ * Sự kiện chạy trên shard thread nên phải ngắn (cập nhật trạng thái, gửi message);
+ * các message sinh ra trong một lượt được gom bằng OutboundBatch.
+ */
+public class SessionShards {
+    private static final int EVENTS_PER_TURN = 64;
+
+    /**
+     * Hộp thư của một trận
+     */
+    public static final class Mailbox {
+        private final Shard shard;
+        private final Runnable onSignal;
+        private final Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+        // true khi mailbox đang nằm trong hàng đợi của shard hoặc đang được xử lý
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean signalled;
+        // Mailbox kế tiếp trong hàng đợi sẵn sàng của shard
+        private volatile Mailbox nextReady;
+
+        private Mailbox(Shard shard, Runnable onSignal) {
+            this.shard = shard;
+            this.onSignal = onSignal;
+        }
+
+        /**
+         * Gửi một sự kiện cho trận; gọi được từ bất kỳ thread nào
+         */
+        public void post(Runnable event) {
+            events.add(event);
+            schedule();
+        }
+
+        /**
+         * Báo trận có việc cho onSignal (click đang chờ trong hàng đợi riêng của trận).
+         * Gọi được từ bất kỳ thread nào, không cấp phát bộ nhớ.
+         */
+        public void signal() {
+            signalled = true;
+            schedule();
+        }
+
+        /**
+         * false sau khi shard đã dừng: không còn ai xử lý mailbox này
+         */
+        public boolean isRunning() {
+            return shard.running;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                shard.enqueue(this);
+            }
+        }
+
+        private boolean runSignal() {
+            if (!signalled) {
+                return false;
+            }
+            signalled = false;
+            run(onSignal);
+            return true;
+        }
+
+        private static void run(Runnable event) {
+            try {
+                event.run();
+            } catch (Throwable t) {
+                System.err.println("[" + Thread.currentThread().getName() + "] session event failed: " + t);
+                t.printStackTrace();
+            }
+        }
+
+        /**
+         * Chạy một lượt trên shard thread
+         */
+        private void runTurn() {
+            int count = runSignal() ? 1 : 0;
+            Runnable event;
+            while (count < EVENTS_PER_TURN && (event = events.poll()) != null) {
+                count++;
+                // Tín hiệu bật trước khi sự kiện này được gửi chạy trước nó: click rồi QUIT_GAME
+                // của cùng một người chơi vẫn được xử lý đúng thứ tự
+                if (runSignal()) {
+                    count++;
+                }
+                run(event);
+            }
+            shard.events.add(count);
+            shard.turns.increment();
+
+            scheduled.set(false);
+            // Sự kiện đến sau khi poll hết (hoặc còn dư vì hết lượt): xếp lại vào cuối hàng đợi của shard
+            if ((signalled || !events.isEmpty()) && scheduled.compareAndSet(false, true)) {
+                shard.enqueue(this);
+            }
+        }
+    }
+
+    /**
+     * Một shard thread và hàng đợi các mailbox sẵn sàng của nó: hàng đợi nhiều-thread-ghi,
+     * một-thread-đọc, móc nối qua Mailbox.nextReady (mỗi mailbox nằm trong hàng đợi tối đa một lần)
+     */
+    private static final class Shard implements Runnable {
+        // Node giả để hàng đợi không bao giờ rỗng hẳn
+        private final Mailbox stub = new Mailbox(this, null);
+        private final AtomicReference<Mailbox> tail = new AtomicReference<>(stub);
+        private Mailbox head = stub; // chỉ shard thread đọc/ghi
+        private final AtomicInteger pending = new AtomicInteger();
+        private final LongAdder events = new LongAdder();
+        private final LongAdder turns = new LongAdder();
+        private volatile boolean running = true;
+        private volatile boolean sleeping;
+        private Thread thread;
+
+        void enqueue(Mailbox mailbox) {
+            pending.incrementAndGet();
+            push(mailbox);
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void push(Mailbox mailbox) {
+            mailbox.nextReady = null;
+            Mailbox previous = tail.getAndSet(mailbox);
+            previous.nextReady = mailbox;
+        }
+
+        /**
+         * Mailbox kế tiếp, hoặc null nếu rỗng hay thread ghi chưa nối xong node của nó
+         */
+        private Mailbox poll() {
+            Mailbox first = head;
+            Mailbox next = first.nextReady;
+            if (first == stub) {
+                if (next == null) {
+                    return null;
+                }
+                head = next;
+                first = next;
+                next = next.nextReady;
+            }
+            if (next != null) {
+                head = next;
+                return first;
+            }
+            if (first != tail.get()) {
+                return null;
+            }
+            // first là node cuối: đưa stub vào sau nó để lấy first ra được
+            push(stub);
+            next = first.nextReady;
+            if (next != null) {
+                head = next;
+                return first;
+            }
+            return null;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Mailbox mailbox = poll();
+                if (mailbox == null) {
+                    if (pending.get() > 0) {
+                        // Thread ghi đang nối node dở dang
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    sleeping = true;
+                    if (pending.get() == 0 && running) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                    continue;
+                }
+                pending.decrementAndGet();
+                OutboundBatch.begin();
+                try {
+                    mailbox.runTurn();
+                } finally {
+                    OutboundBatch.end();
+                }
+            }
+        }
+    }
+
+    private final Shard[] shards;
+
+    public SessionShards(int shardCount) {
+        shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+            Thread thread = new Thread(shards[i], "session-shard-" + i);
+            thread.setDaemon(true);
+            shards[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Tạo mailbox cho trận gameId, gắn với shard theo hash của game ID.
+     * onSignal chạy trên shard thread sau mỗi lần signal().
+     */
+    public Mailbox mailbox(String gameId, Runnable onSignal) {
+        return new Mailbox(shards[Math.floorMod(gameId.hashCode(), shards.length)], onSignal);
+    }
+
+    /**
+     * Dừng các shard thread và chờ lượt đang chạy xong, để không sự kiện nào của trận còn chạy sau khi trả về
+     */
+    public void stop() {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public String summary() {
+        long events = 0;
+        long turns = 0;
+        int backlog = 0;
+        int maxBacklog = 0;
+        for (Shard shard : shards) {
+            events += shard.events.sum();
+            turns += shard.turns.sum();
+            int size = shard.pending.get();
+            backlog += size;
+            maxBacklog = Math.max(maxBacklog, size);
+        }
+        String perTurn = turns == 0 ? "0" : String.format("%.2f", (double) events / turns);
+        return "Session shards: " + shards.length + " threads, " + events + " events in " + turns + " turns ("
+                + perTurn + " per turn), " + backlog + " sessions waiting (max " + maxBacklog + " on one shard)";
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.gamesocket;
+// SharedMessage.java
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message gửi cho nhiều người (presence, lobby, kết quả trận): mã hóa ra byte đúng một lần
+ * cho mỗi giao thức rồi mọi người nhận cùng ghi chung mảng byte đó ra socket,
+ * thay vì mỗi ClientHandler tự mã hóa lại cùng một chuỗi.
+ *
+ * Đếm tham chiếu: người tạo giữ một tham chiếu, mỗi hàng đợi nhận message giữ thêm một,
+ * writer trả lại khi đã ghi xong (hoặc khi message bị bỏ). Về 0 thì buffer được giải phóng.
+ * Cách dùng:
+ * <pre>
+ *     SharedMessage shared = SharedMessage.of(message);
+ *     try { for (...) client.sendShared(shared); } finally { shared.release(); }
+ * </pre>
+ * Không dùng cho message phụ thuộc người nhận (OPPONENT_SCORE ở giao thức nhị phân).
+ */
+public final class SharedMessage {
+    // Thống kê toàn server
+    private static final LongAdder encodings = new LongAdder();
+    private static final LongAdder deliveries = new LongAdder();
+    private static final AtomicLong liveBuffers = new AtomicLong();
+
+    private final String text;
+    private final OutboundQueue.Kind kind;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    // Mã hóa lười, không khóa: hai writer cùng mã hóa lần đầu thì chỉ tốn thêm một lần, kết quả như nhau
+    private volatile byte[] textBytes;
+    private volatile byte[] binaryBytes;
+
+    private SharedMessage(String text) {
+        this.text = text;
+        this.kind = OutboundQueue.classify(text);
+    }
+
+    public static SharedMessage of(String text) {
+        liveBuffers.incrementAndGet();
+        return new SharedMessage(text);
+    }
+
+    public String text() {
+        return text;
+    }
+
+    OutboundQueue.Kind kind() {
+        return kind;
+    }
+
+    /**
+     * Giữ thêm một tham chiếu. Trả về false nếu message đã được giải phóng.
+     */
+    boolean retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            textBytes = null;
+            binaryBytes = null;
+            liveBuffers.decrementAndGet();
+        } else if (count < 0) {
+            throw new IllegalStateException("SharedMessage released too many times: " + text);
+        }
+    }
+
+    /**
+     * Các byte đã mã hóa theo giao thức của người nhận; mã hóa ở lần gọi đầu tiên.
+     * Người gọi phải đang giữ một tham chiếu.
+     */
+    byte[] bytes(boolean binary) {
+        deliveries.increment();
+        if (binary) {
+            byte[] bytes = binaryBytes;
+            if (bytes == null) {
+                bytes = BinaryProtocol.encodeServerMessage(text, null);
+                binaryBytes = bytes;
+                encodings.increment();
+            }
+            return bytes;
+        }
+        byte[] bytes = textBytes;
+        if (bytes == null) {
+            bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+            textBytes = bytes;
+            encodings.increment();
+        }
+        return bytes;
+    }
+
+    public static String summary() {
+        long encoded = encodings.sum();
+        long delivered = deliveries.sum();
+        return "Shared broadcasts: " + delivered + " deliveries from " + encoded + " encodings ("
+                + Math.max(0, delivered - encoded) + " encodings saved), " + liveBuffers.get() + " live buffers";
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.gamesocket;
+// TimingWheel.java
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashed timing wheel: một thread duy nhất phục vụ rất nhiều hẹn giờ.
+ * Thêm và hủy hẹn giờ đều O(1): thread gọi chỉ bỏ yêu cầu vào hàng đợi,
+ * thread của wheel gắn/gỡ Timeout khỏi danh sách liên kết của ô tương ứng ở mỗi tick.
+ *
+ * Độ chính xác bằng một tick. Task chạy trên thread của wheel nên phải ngắn
+ * (gửi message, đóng socket...), việc nặng thì chuyển sang executor khác.
+ */
+public class TimingWheel {
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    /**
+     * Hẹn giờ đã đặt, dùng để hủy
+     */
+    public static final class Timeout {
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadlineNanos) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Hủy hẹn giờ. Trả về false nếu task đã chạy hoặc đã bị hủy trước đó.
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+            wheel.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+    }
+
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final long startNanos;
+    private volatile boolean running = true;
+    private long tick;
+
+    // Thống kê: độ trễ từ hạn hẹn giờ tới lúc task thực sự chạy
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder firingLagNanos = new LongAdder();
+    private volatile long maxFiringLagNanos;
+
+    /**
+     * @param tickMillis độ dài một tick
+     * @param wheelSize  số ô của wheel (làm tròn lên lũy thừa của 2)
+     */
+    public TimingWheel(String name, long tickMillis, int wheelSize) {
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+
+        Thread worker = new Thread(this::runWorker, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Đặt task chạy sau delayMillis
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        pendingCount.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Số hẹn giờ đang chờ (kể cả những cái chưa được gắn vào wheel)
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private void runWorker() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            removeCancelled();
+            transferNewTimeouts();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.state.get() != STATE_PENDING) {
+                continue;
+            }
+            long ticks = Math.max(0, (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos - tick);
+            timeout.remainingRounds = ticks / wheel.length;
+            // Hẹn giờ đã quá hạn được gắn vào ô hiện tại để chạy ngay trong tick này
+            wheel[(int) ((tick + ticks) & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+            pendingCount.decrementAndGet();
+            cancelled.increment();
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                bucket.remove(timeout);
+                if (timeout.state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                    pendingCount.decrementAndGet();
+                    recordFiring(timeout);
+                    try {
+                        timeout.task.run();
+                    } catch (Throwable t) {
+                        System.err.println("[" + name + "] timer task failed: " + t);
+                        t.printStackTrace();
+                    }
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private void recordFiring(Timeout timeout) {
+        long lag = Math.max(0, System.nanoTime() - timeout.deadlineNanos);
+        fired.increment();
+        firingLagNanos.add(lag);
+        // Chỉ thread của wheel ghi
+        if (lag > maxFiringLagNanos) {
+            maxFiringLagNanos = lag;
+        }
+    }
+
+    public String summary() {
+        long firedCount = fired.sum();
+        long avgLagMillis = firedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(firingLagNanos.sum() / firedCount);
+        return "Timers [" + name + "]: " + pendingCount.get() + " pending, " + firedCount + " fired, "
+                + cancelled.sum() + " cancelled, firing lag avg " + avgLagMillis + " ms / max "
+                + TimeUnit.NANOSECONDS.toMillis(maxFiringLagNanos) + " ms";
+    }
+}
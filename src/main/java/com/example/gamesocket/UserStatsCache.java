@@ -0,0 +1,195 @@
+package com.example.gamesocket;
+// UserStatsCache.java
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Cache điểm và thống kê của người chơi theo username, để việc dựng danh sách online
+ * không phải mở kết nối DB cho từng người: PresenceTracker đọc điểm qua getTotalScore().
+ *
+ * Nạp một lần lúc đăng nhập, cập nhật tại chỗ khi kết quả trận đã ghi DB (GameResultWriter),
+ * bỏ khỏi cache khi người chơi offline. Bản ghi nạp từ DB lâu hơn TTL vẫn được trả ngay,
+ * đồng thời được nạp lại ở thread nền (phòng khi DB bị sửa từ bên ngoài server): đường đọc
+ * không bao giờ chờ DB.
+ */
+public class UserStatsCache {
+
+    /**
+     * Thống kê của một người chơi (bất biến, cập nhật bằng cách thay bản ghi mới)
+     */
+    public static final class UserStats {
+        private final int totalScore;
+        private final int gamesPlayed;
+        private final int gamesWon;
+        private final long loadedAtNanos;
+
+        public UserStats(int totalScore, int gamesPlayed, int gamesWon) {
+            this(totalScore, gamesPlayed, gamesWon, System.nanoTime());
+        }
+
+        private UserStats(int totalScore, int gamesPlayed, int gamesWon, long loadedAtNanos) {
+            this.totalScore = totalScore;
+            this.gamesPlayed = gamesPlayed;
+            this.gamesWon = gamesWon;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+
+        UserStats withGameResults(int games, int wins, int score) {
+            // Giữ nguyên thời điểm nạp: tuổi của bản ghi tính từ lần đọc DB gần nhất
+            return new UserStats(totalScore + score, gamesPlayed + games, gamesWon + wins, loadedAtNanos);
+        }
+
+        public int getTotalScore() {
+            return totalScore;
+        }
+
+        public int getGamesPlayed() {
+            return gamesPlayed;
+        }
+
+        public int getGamesWon() {
+            return gamesWon;
+        }
+    }
+
+    private final Map<String, UserStats> cache = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final Function<String, UserStats> loader;
+    private final long ttlNanos;
+    private final Executor refresher;
+    private final Consumer<String> onRefreshed;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleReads = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder failedLoads = new LongAdder();
+    private final LongAdder inPlaceUpdates = new LongAdder();
+    private final LongAdder offlineUpdates = new LongAdder();
+
+    /**
+     * @param loader      đọc thống kê từ DB, trả về null nếu không đọc được
+     * @param ttlSeconds  tuổi tối đa của bản ghi trước khi được nạp lại (0 = không hết hạn)
+     * @param refresher   thread nền chạy các lần nạp lại
+     * @param onRefreshed gọi khi lần nạp lại làm đổi điểm của người chơi
+     */
+    public UserStatsCache(Function<String, UserStats> loader, long ttlSeconds, Executor refresher,
+                          Consumer<String> onRefreshed) {
+        this.loader = loader;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.refresher = refresher;
+        this.onRefreshed = onRefreshed;
+    }
+
+    /**
+     * Đọc thống kê từ DB lúc đăng nhập, chưa đưa vào cache (xem put). Trả về null nếu không đọc được.
+     */
+    public UserStats fetch(String username) {
+        loads.increment();
+        UserStats stats = loader.apply(username);
+        if (stats == null) {
+            failedLoads.increment();
+        }
+        return stats;
+    }
+
+    /**
+     * Đưa thống kê vừa đọc vào cache. GameServer chỉ gọi khi username chưa online,
+     * nên không bao giờ ghi đè bản ghi của một phiên đang chơi.
+     */
+    public void put(String username, UserStats stats) {
+        cache.put(username, stats);
+    }
+
+    /**
+     * Điểm hiện tại của người chơi, không chờ DB. Miss (lần nạp lúc đăng nhập bị lỗi) trả về 0;
+     * bản ghi quá TTL vẫn được trả và được nạp lại ở thread nền.
+     */
+    public int getTotalScore(String username) {
+        UserStats stats = cache.get(username);
+        if (stats == null) {
+            misses.increment();
+            return 0;
+        }
+        hits.increment();
+        if (ttlNanos > 0 && System.nanoTime() - stats.loadedAtNanos > ttlNanos) {
+            staleReads.increment();
+            refresh(username, stats);
+        }
+        return stats.getTotalScore();
+    }
+
+    private void refresh(String username, UserStats seen) {
+        if (!refreshing.add(username)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    UserStats fresh = fetch(username);
+                    // Chỉ thay đúng bản ghi đã thấy: kết quả trận cộng vào giữa chừng hoặc người chơi
+                    // đã offline thì bỏ bản vừa đọc, lần đọc sau sẽ thử lại
+                    if (fresh != null && cache.replace(username, seen, fresh)) {
+                        refreshes.increment();
+                        if (fresh.getTotalScore() != seen.getTotalScore()) {
+                            onRefreshed.accept(username);
+                        }
+                    }
+                } finally {
+                    refreshing.remove(username);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Server đang dừng
+            refreshing.remove(username);
+        }
+    }
+    /**
+     * Cộng kết quả (một hoặc nhiều trận) vào bản ghi đang cache, gọi sau khi DB đã cập nhật thành công.
+     * Người chơi không có trong cache thì thôi, lần đọc sau sẽ nạp từ DB.
+     */
+    public UserStats applyGameResults(String username, int games, int wins, int score) {
+        UserStats updated = cache.computeIfPresent(username, (name, stats) -> stats.withGameResults(games, wins, score));
+        if (updated != null) {
+            inPlaceUpdates.increment();
+        } else {
+            offlineUpdates.increment();
+        }
+        return updated;
+    }
+
+    public void evict(String username) {
+        cache.remove(username);
+    }
+
+    /**
+     * Tuổi (giây) của bản ghi lâu nhất chưa được nạp lại từ DB
+     */
+    public long getMaxAgeSeconds() {
+        long now = System.nanoTime();
+        long oldest = 0;
+        for (UserStats stats : cache.values()) {
+            oldest = Math.max(oldest, now - stats.loadedAtNanos);
+        }
+        return TimeUnit.NANOSECONDS.toSeconds(oldest);
+    }
+
+    public String summary() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long reads = hitCount + missCount;
+        String hitRate = reads == 0 ? "n/a" : String.format("%.1f%%", 100.0 * hitCount / reads);
+        return "User stats cache: " + cache.size() + " entries, " + hitCount + " hits, " + missCount + " misses ("
+                + hitRate + " hit rate), " + staleReads.sum() + " stale reads, " + refreshes.sum() + " refreshed, "
+                + "oldest " + getMaxAgeSeconds() + "s; " + loads.sum() + " DB loads (" + failedLoads.sum()
+                + " failed), " + inPlaceUpdates.sum() + " in-place updates, " + offlineUpdates.sum()
+                + " results for offline players";
+    }
+}
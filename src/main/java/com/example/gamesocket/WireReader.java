@@ -0,0 +1,108 @@
+package com.example.gamesocket;
+// WireReader.java
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Đọc dòng text hoặc frame nhị phân từ một InputStream, dùng lại một buffer duy nhất.
+ * Dùng được cả ở server (chế độ blocking/virtual) lẫn ở client, kể cả khi
+ * chuyển từ text sang nhị phân giữa chừng sau bước bắt tay.
+ */
+public class WireReader {
+    private final InputStream in;
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    public WireReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Đọc một dòng (bỏ '\r\n' hoặc '\n' ở cuối). Trả về null khi hết stream.
+     */
+    public String readLine() throws IOException {
+        if (!readLineBytes()) {
+            return null;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Như readLine() nhưng để nguyên các byte của dòng trong buffer()[0, length()),
+     * không tạo String. Trả về false khi hết stream.
+     */
+    public boolean readLineBytes() throws IOException {
+        length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (length == 0) {
+                    return false;
+                }
+                break;
+            }
+            ensureCapacity(length + 1);
+            buffer[length++] = (byte) b;
+        }
+        if (length > 0 && buffer[length - 1] == '\r') {
+            length--;
+        }
+        return true;
+    }
+
+    /**
+     * Đọc một frame nhị phân (opcode + payload) vào buffer(). Trả về false khi hết stream.
+     */
+    public boolean readFrame() throws IOException {
+        int frameLength = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection closed in the middle of a frame");
+            }
+            frameLength |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+
+        if (frameLength <= 0 || frameLength > BinaryProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + frameLength);
+        }
+        ensureCapacity(frameLength);
+        int read = 0;
+        while (read < frameLength) {
+            int n = in.read(buffer, read, frameLength - read);
+            if (n < 0) {
+                throw new EOFException("Connection closed in the middle of a frame");
+            }
+            read += n;
+        }
+        length = frameLength;
+        return true;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private void ensureCapacity(int capacity) throws IOException {
+        if (capacity > BinaryProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Message too long");
+        }
+        if (capacity > buffer.length) {
+            byte[] bigger = new byte[Math.min(Math.max(capacity, buffer.length * 2), BinaryProtocol.MAX_FRAME_LENGTH)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+    }
+}
@@ -11,6 +11,7 @@ module com.example.gamesocket {
     requires eu.hansolo.tilesfx;
     requires com.almasb.fxgl.all;
     requires java.sql;
+    requires jdk.jfr;
 
     opens com.example.gamesocket to javafx.fxml;
     exports com.example.gamesocket;
@@ -0,0 +1,102 @@
+package com.example.gamesocket;
+// ClientHandlerLoginTest.java
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Kết nối đóng trong lúc LOGIN còn đang chạy (ở chế độ NIO lệnh chạy trên worker thread,
+ * event loop vẫn có thể gọi cleanup()): username không được kẹt lại trong danh sách online.
+ */
+class ClientHandlerLoginTest {
+    @TempDir
+    File tempDir;
+
+    private final CountDownLatch loginInFlight = new CountDownLatch(1);
+    private final CountDownLatch closeDone = new CountDownLatch(1);
+    private volatile boolean holdLogin = true;
+
+    private GameServer server;
+    private ServerSocket listener;
+    private Socket client;
+    private Socket accepted;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        System.setProperty("game.server.store", "file");
+        System.setProperty("game.server.store.file", new File(tempDir, "game-store.log").getPath());
+        System.setProperty("game.server.results.spillFile", new File(tempDir, "game-results.spill").getPath());
+        // Giữ lần đăng nhập đầu tiên lại sau bước xác thực, tới khi kết nối đã đóng xong
+        server = new GameServer() {
+            @Override
+            public boolean authenticateUser(String username, String password) {
+                boolean authenticated = super.authenticateUser(username, password);
+                if (holdLogin) {
+                    holdLogin = false;
+                    loginInFlight.countDown();
+                    try {
+                        closeDone.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return authenticated;
+            }
+        };
+        server.registerUser("alice", "pw");
+        listener = new ServerSocket(0, 2, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        accepted = listener.accept();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        accepted.close();
+        listener.close();
+        server.stop();
+        System.clearProperty("game.server.store");
+        System.clearProperty("game.server.store.file");
+        System.clearProperty("game.server.results.spillFile");
+    }
+
+    @Test
+    void closeDuringLoginDoesNotLeaveUserOnline() throws Exception {
+        ClientHandler handler = new ClientHandler(accepted, server);
+        handler.start();
+        byte[] login = "LOGIN:alice,pw".getBytes(StandardCharsets.UTF_8);
+
+        Thread worker = new Thread(() -> handler.handleLine(login, 0, login.length), "login-worker");
+        worker.start();
+        assertTrue(loginInFlight.await(10, TimeUnit.SECONDS));
+        // Kết nối đóng khi username còn null, rồi lệnh LOGIN mới chạy tiếp tới registerClient
+        handler.cleanup();
+        closeDone.countDown();
+        worker.join(10_000);
+
+        assertFalse(worker.isAlive());
+        assertFalse(server.getOnlineClients().containsKey("alice"));
+
+        // Kết nối mới của cùng user đăng nhập được
+        try (Socket second = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+             Socket secondAccepted = listener.accept()) {
+            ClientHandler next = new ClientHandler(secondAccepted, server);
+            next.start();
+            next.handleLine(login, 0, login.length);
+            assertSame(next, server.getOnlineClients().get("alice"));
+            next.cleanup();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.gamesocket;
+// ClientRegistryContentionBenchmark.java
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tranh chấp trên danh sách client online: nhiều thread cùng đăng nhập, nhắn tin riêng và
+ * đăng xuất (registerClient / sendPrivateMessage / removeClient), mỗi thread một username.
+ * Không còn khóa chung toàn server nên thông lượng phải tăng theo số thread.
+ *
+ * Không chạy cùng mvn test; chạy riêng:
+ * mvn test -Dtest=ClientRegistryContentionBenchmark [-Dbench.registry.ops=200000]
+ */
+class ClientRegistryContentionBenchmark {
+    private static final int OPS_PER_THREAD = Integer.getInteger("bench.registry.ops", 100_000);
+
+    @TempDir
+    File tempDir;
+
+    private GameServer server;
+    private ServerSocket listener;
+    private Socket client;
+    private Socket accepted;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        System.setProperty("game.server.store", "file");
+        System.setProperty("game.server.store.file", new File(tempDir, "game-store.log").getPath());
+        System.setProperty("game.server.results.spillFile", new File(tempDir, "game-results.spill").getPath());
+        // Thread kế bên có thể chưa kịp dọn hàng đợi: không để client bị ngắt vì đầy hàng đợi
+        System.setProperty("game.server.outboundCapacity", String.valueOf(Integer.MAX_VALUE / 2));
+        server = new GameServer();
+        // Các handler dùng chung một socket: benchmark không đọc/ghi mạng
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        accepted = listener.accept();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        accepted.close();
+        listener.close();
+        server.stop();
+        System.clearProperty("game.server.store");
+        System.clearProperty("game.server.store.file");
+        System.clearProperty("game.server.results.spillFile");
+        System.clearProperty("game.server.outboundCapacity");
+    }
+
+    @Test
+    void loginMessageLogoutScalesWithThreads() throws Exception {
+        int maxThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        // Chạy thử một lượt để JIT biên dịch trước khi đo
+        run(maxThreads, OPS_PER_THREAD / 10);
+
+        double single = run(1, OPS_PER_THREAD);
+        double parallel = run(maxThreads, OPS_PER_THREAD);
+        System.out.printf("Client registry: 1 thread %.0f ops/s, %d threads %.0f ops/s (x%.2f)%n",
+                single, maxThreads, parallel, parallel / single);
+        assertTrue(server.getOnlineClients().isEmpty());
+    }
+
+    @Test
+    void onlyOneLoginWinsTheSameUsername() throws Exception {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ClientHandler[] handlers = newHandlers(threads);
+        AtomicInteger winners = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            ClientHandler handler = handlers[t];
+            workers[t] = new Thread(() -> {
+                awaitQuietly(start);
+                if (server.registerClient("same-user", handler)) {
+                    winners.incrementAndGet();
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(1, winners.get());
+    }
+
+    /**
+     * Mỗi thread lặp: đăng nhập, nhắn cho thread kế bên, đăng xuất, rồi dọn hàng đợi gửi của mình
+     * (việc của writer thread). Trả về số thao tác mỗi giây của cả nhóm.
+     */
+    private double run(int threads, int opsPerThread) throws Exception {
+        ClientHandler[] handlers = newHandlers(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            String username = "bench-" + t;
+            String neighbour = "bench-" + (t + 1) % threads;
+            ClientHandler handler = handlers[t];
+            workers[t] = new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < opsPerThread; i++) {
+                    server.registerClient(username, handler);
+                    server.sendPrivateMessage(username, neighbour, "hi");
+                    server.removeClient(username, handler);
+                    drain(handler);
+                }
+            }, "registry-bench-" + t);
+            workers[t].start();
+        }
+
+        // Mỗi lượt đăng nhập/đăng xuất in một dòng log: bỏ đi trong lúc đo
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long startNanos = System.nanoTime();
+        try {
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            System.setOut(out);
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        return (double) threads * opsPerThread * 3 / (elapsed / 1e9);
+    }
+
+    private ClientHandler[] newHandlers(int count) {
+        ClientHandler[] handlers = new ClientHandler[count];
+        for (int i = 0; i < count; i++) {
+            handlers[i] = new ClientHandler(accepted, server);
+            handlers[i].start();
+        }
+        return handlers;
+    }
+
+    private static void drain(ClientHandler handler) {
+        OutboundQueue.Entry entry;
+        while ((entry = handler.getOutboundQueue().poll()) != null) {
+            entry.release();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
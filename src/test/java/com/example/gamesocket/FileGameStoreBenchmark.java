@@ -0,0 +1,98 @@
+package com.example.gamesocket;
+// FileGameStoreBenchmark.java
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Độ trễ ghi của FileGameStore: mỗi lần saveResults là một lần ghi nối + fsync.
+ * So một kết quả mỗi lần ghi với lô như GameResultWriter gom (game.server.results.batchSize).
+ *
+ * Không chạy cùng mvn test (tên không kết thúc bằng Test); chạy riêng:
+ * mvn test -Dtest=FileGameStoreBenchmark [-Dbench.fileStore.appends=2000]
+ */
+class FileGameStoreBenchmark {
+    private static final int APPENDS = Integer.getInteger("bench.fileStore.appends", 500);
+    private static final int BATCH_SIZE = ServerConfig.resultBatchSize();
+
+    @TempDir
+    File tempDir;
+
+    private FileGameStore store;
+    private int nextResult;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new FileGameStore(new File(tempDir, "game-store.log"));
+        store.open();
+        store.registerUser("alice", "pw");
+        store.registerUser("bob", "pw");
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.out.println(store.summary());
+        store.close();
+    }
+
+    private GameResultWriter.GameResult nextResult() {
+        int n = nextResult++;
+        return new GameResultWriter.GameResult("bench-" + n, "GAME_" + n, "alice", "bob",
+                n % 2 == 0 ? "alice" : "bob", 50, 30, 100, 1_000_000L + n);
+    }
+
+    @Test
+    void singleResultPerAppend() throws Exception {
+        long[] nanos = new long[APPENDS];
+        for (int i = 0; i < APPENDS; i++) {
+            List<GameResultWriter.GameResult> one = List.of(nextResult());
+            long start = System.nanoTime();
+            store.saveResults(one);
+            nanos[i] = System.nanoTime() - start;
+        }
+        report("1 result/append", nanos, 1);
+        assertEquals(APPENDS, store.loadUserStats("alice").getGamesPlayed());
+    }
+
+    @Test
+    void batchedResultsPerAppend() throws Exception {
+        int batches = Math.max(1, APPENDS / 10);
+        long[] nanos = new long[batches];
+        for (int i = 0; i < batches; i++) {
+            List<GameResultWriter.GameResult> batch = new ArrayList<>(BATCH_SIZE);
+            for (int j = 0; j < BATCH_SIZE; j++) {
+                batch.add(nextResult());
+            }
+            long start = System.nanoTime();
+            store.saveResults(batch);
+            nanos[i] = System.nanoTime() - start;
+        }
+        report(BATCH_SIZE + " results/append", nanos, BATCH_SIZE);
+        assertEquals(batches * BATCH_SIZE, store.loadUserStats("alice").getGamesPlayed());
+    }
+
+    private static void report(String name, long[] nanos, int resultsPerAppend) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long n : sorted) {
+            total += n;
+        }
+        double resultsPerSecond = (double) sorted.length * resultsPerAppend / (total / 1e9);
+        System.out.printf("FileGameStore %s: %d appends, p50 %d us, p99 %d us, max %d us, %.0f results/s%n",
+                name, sorted.length, micros(sorted[sorted.length / 2]), micros(sorted[sorted.length * 99 / 100]),
+                micros(sorted[sorted.length - 1]), resultsPerSecond);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.gamesocket;
+// FileGameStoreTest.java
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * FileGameStore: đọc lại log khi mở, cắt frame hỏng ở cuối, bỏ kết quả trùng result id
+ */
+class FileGameStoreTest {
+    @TempDir
+    File tempDir;
+
+    private File logFile;
+    private FileGameStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        logFile = new File(tempDir, "game-store.log");
+        store = open();
+        assertTrue(store.registerUser("alice", "pw"));
+        assertTrue(store.registerUser("bob", "pw"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    private FileGameStore open() throws GameStore.StoreException {
+        FileGameStore opened = new FileGameStore(logFile);
+        opened.open();
+        return opened;
+    }
+
+    private FileGameStore reopen() throws GameStore.StoreException {
+        store.close();
+        store = open();
+        return store;
+    }
+
+    private static GameResultWriter.GameResult result(String resultId, String winner, long playedAtMillis) {
+        return new GameResultWriter.GameResult(resultId, "GAME_1", "alice", "bob", winner,
+                winner.equals("alice") ? 10 : 3, winner.equals("bob") ? 10 : 3, 60, playedAtMillis);
+    }
+
+    @Test
+    void reopenRebuildsUsersStatsAndHistory() throws Exception {
+        store.saveResults(List.of(result("r1", "alice", 1000), result("r2", "bob", 2000)));
+
+        FileGameStore reopened = reopen();
+        assertTrue(reopened.authenticate("alice", "pw"));
+        UserStatsCache.UserStats alice = reopened.loadUserStats("alice");
+        assertEquals(2, alice.getGamesPlayed());
+        assertEquals(1, alice.getGamesWon());
+        assertEquals(13, alice.getTotalScore());
+        List<GameStore.MatchRecord> history = reopened.matchHistory("bob", GameStore.NO_CURSOR, 0, 10);
+        assertEquals(2, history.size());
+        assertEquals(2000, history.get(0).getPlayedAtMillis());
+    }
+
+    @Test
+    void tornTailIsTruncatedOnReplay() throws Exception {
+        store.saveResults(List.of(result("r1", "alice", 1000)));
+        store.close();
+        long validLength = logFile.length();
+
+        // Crash giữa lúc ghi: header hứa 64 byte nhưng chỉ có 5 byte nội dung
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(new byte[] {0, 0, 0, 64, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        }
+
+        store = open();
+        assertEquals(validLength, logFile.length());
+        assertEquals(1, store.loadUserStats("alice").getGamesPlayed());
+
+        // Ghi tiếp sau phần đã cắt vẫn đọc lại được
+        assertTrue(store.registerUser("carol", "pw"));
+        assertTrue(reopen().authenticate("carol", "pw"));
+    }
+
+    @Test
+    void frameWithBadChecksumEndsReplay() throws Exception {
+        long beforeResult = logFile.length();
+        store.saveResults(List.of(result("r1", "alice", 1000)));
+        store.close();
+
+        // Sửa một byte nội dung của frame kết quả (sau độ dài và CRC)
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            file.seek(beforeResult + 8 + 2);
+            int original = file.read();
+            file.seek(beforeResult + 8 + 2);
+            file.write(original ^ 0xFF);
+        }
+
+        store = open();
+        assertEquals(beforeResult, logFile.length());
+        assertTrue(store.authenticate("bob", "pw"));
+        assertEquals(0, store.loadUserStats("alice").getGamesPlayed());
+        assertTrue(store.matchHistory("alice", GameStore.NO_CURSOR, 0, 10).isEmpty());
+    }
+
+    @Test
+    void resultsAlreadyStoredAreSkipped() throws Exception {
+        GameResultWriter.GameResult first = result("r1", "alice", 1000);
+        assertEquals(1, store.saveResults(List.of(first, first)).size());
+        assertEquals(0, store.saveResults(List.of(first)).size());
+
+        // Sau khi mở lại, result id vẫn được nhớ
+        FileGameStore reopened = reopen();
+        List<GameResultWriter.GameResult> saved = reopened.saveResults(List.of(first, result("r2", "bob", 2000)));
+        assertEquals(1, saved.size());
+        assertEquals("r2", saved.get(0).getResultId());
+        assertEquals(2, reopened.loadUserStats("alice").getGamesPlayed());
+    }
+
+    @Test
+    void writesFailWithStoreExceptionWhenOpenFailed() throws IOException {
+        File directory = new File(tempDir, "not-a-file");
+        assertTrue(directory.mkdir());
+        FileGameStore broken = new FileGameStore(directory);
+
+        assertThrows(GameStore.StoreException.class, broken::open);
+        assertThrows(GameStore.StoreException.class, () -> broken.registerUser("dave", "pw"));
+        assertThrows(GameStore.StoreException.class,
+                () -> broken.saveResults(List.of(result("r1", "alice", 1000))));
+        assertNull(broken.loadUserStats("dave"));
+        assertNotNull(broken.summary());
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.gamesocket;
+// GameActionAllocationTest.java
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * GAME_ACTION là lệnh gửi nhiều nhất: trên thread đọc của client, cả bước đọc lệnh, dispatch lẫn
+ * bước chuyển click cho trận (hàng đợi click của GameSession và signal() của mailbox) không được
+ * tạo object nào. Người chơi đang ở trong một trận đã bắt đầu, click được trận xử lý thật.
+ *
+ * Việc xử lý click và gửi kết quả chạy trên shard thread, không tính vào thread đo.
+ */
+class GameActionAllocationTest {
+    private static final int WARMUP_LINES = 200_000;
+    private static final int MEASURED_LINES = 1_000_000;
+    private static final long ALLOCATION_BOUND_BYTES = 256;
+
+    @TempDir
+    File tempDir;
+
+    private GameServer server;
+    private ServerSocket listener;
+    private Socket client;
+    private Socket accepted;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        System.setProperty("game.server.store", "file");
+        System.setProperty("game.server.store.file", new File(tempDir, "game-store.log").getPath());
+        System.setProperty("game.server.results.spillFile", new File(tempDir, "game-results.spill").getPath());
+        // Không để rate limiter chặn vòng lặp đo
+        System.setProperty("game.server.rate.gameAction", String.valueOf(Integer.MAX_VALUE));
+        System.setProperty("game.server.rate.gameActionBurst", String.valueOf(Integer.MAX_VALUE));
+
+        server = new GameServer();
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        accepted = listener.accept();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        accepted.close();
+        listener.close();
+        server.stop();
+        System.clearProperty("game.server.store");
+        System.clearProperty("game.server.store.file");
+        System.clearProperty("game.server.results.spillFile");
+        System.clearProperty("game.server.rate.gameAction");
+        System.clearProperty("game.server.rate.gameActionBurst");
+    }
+
+    @Test
+    void gameActionInStartedSessionDoesNotAllocate() throws Exception {
+        ClientHandler alice = login("alice");
+        ClientHandler bob = login("bob");
+        send(alice, "INVITE:bob");
+        send(bob, "ACCEPT_INVITATION:alice");
+        send(alice, "START_GAME:" + alice.getCurrentLobbyId());
+        assertNotNull(alice.getCurrentGameId());
+
+        // Bấm mãi một hạt gạo: chỉ lần đầu được điểm, các lần sau trận bỏ qua mà không gửi gì,
+        // nên hàng đợi gửi không đầy dù rate limiter đã tắt
+        String[] started = awaitMessage(alice, "GAME_STARTED:").substring("GAME_STARTED:".length()).split(",");
+        int grains = Integer.parseInt(started[4]);
+        int riceIndex = BoardLayout.rice(Long.parseLong(started[3]), grains, Integer.parseInt(started[5])).nextSetBit(0);
+        byte[] line = ("GAME_ACTION:" + riceIndex).getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < WARMUP_LINES; i++) {
+            alice.handleLine(line, 0, line.length);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_LINES; i++) {
+            alice.handleLine(line, 0, line.length);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        // Một ngưỡng cố định, không tăng theo số dòng: chỉ chừa chỗ cho vài byte của chính lần đo
+        assertTrue(allocated <= ALLOCATION_BOUND_BYTES,
+                "GAME_ACTION allocated " + allocated + " bytes over " + MEASURED_LINES + " lines");
+
+        // Mọi click đã tới trận và được xử lý theo thứ tự: đúng một kết quả cho hạt gạo,
+        // rồi tới kết quả của click gửi sau cùng
+        int chaffIndex = BoardLayout.rice(Long.parseLong(started[3]), grains, Integer.parseInt(started[5])).nextClearBit(0);
+        send(alice, "GAME_ACTION:" + chaffIndex);
+        List<String> results = new ArrayList<>();
+        String result;
+        do {
+            result = awaitMessage(alice, "GRAIN_RESULT:");
+            results.add(result);
+        } while (!result.startsWith("GRAIN_RESULT:" + chaffIndex + ","));
+        assertEquals(List.of("GRAIN_RESULT:" + riceIndex + ",RICE,1", result), results);
+    }
+
+    private ClientHandler login(String username) {
+        server.registerUser(username, "pw");
+        ClientHandler handler = new ClientHandler(accepted, server);
+        handler.start();
+        send(handler, "LOGIN:" + username + ",pw");
+        assertEquals(username, handler.getUsername());
+        return handler;
+    }
+
+    private static void send(ClientHandler handler, String command) {
+        byte[] line = command.getBytes(StandardCharsets.UTF_8);
+        handler.handleLine(line, 0, line.length);
+    }
+
+    /**
+     * Lấy message kế tiếp có tiền tố prefix từ hàng đợi gửi của handler (thay cho writer thread)
+     */
+    private static String awaitMessage(ClientHandler handler, String prefix) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            OutboundQueue.Entry entry = handler.getOutboundQueue().poll();
+            if (entry == null) {
+                Thread.sleep(1);
+                continue;
+            }
+            String message = entry.message();
+            entry.release();
+            if (message != null && message.startsWith(prefix)) {
+                return message;
+            }
+        }
+        throw new AssertionError("No " + prefix + " message");
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.gamesocket;
+// GameSessionStateBenchmark.java
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * So cách lưu trạng thái trận cũ (Map/HashSet theo username, Integer bị box) với GameSession
+ * hiện tại (chỉ số người chơi, int[] và BitSet): số click mỗi giây, byte cấp phát mỗi click
+ * và byte cấp phát để tạo một trận.
+ *
+ * "Trước" là BoxedState bên dưới, chép lại phần trạng thái và luật click của GameSession cũ.
+ * "Sau" là GameSession thật: click được chạy thẳng qua handler của mailbox (onPlayerAction)
+ * trên thread của benchmark, người chơi không online nên không có message nào được gửi.
+ *
+ * Không chạy cùng mvn test; chạy riêng:
+ * mvn test -Dtest=GameSessionStateBenchmark [-Dbench.session.clicks=2000000]
+ */
+class GameSessionStateBenchmark {
+    private static final int CLICKS = Integer.getInteger("bench.session.clicks", 1_000_000);
+    // Bàn đủ lớn để trận không kết thúc giữa chừng; điểm thắng không bao giờ đạt tới
+    private static final BoardLayout.Params LARGE_BOARD = new BoardLayout.Params(CLICKS, CLICKS * 2 / 3,
+            CLICKS / 20, CLICKS / 33, Integer.MAX_VALUE);
+    private static final int SESSIONS = 10_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    private static final MethodHandle ON_PLAYER_ACTION;
+
+    static {
+        try {
+            ON_PLAYER_ACTION = MethodHandles.privateLookupIn(GameSession.class, MethodHandles.lookup())
+                    .findVirtual(GameSession.class, "onPlayerAction",
+                            MethodType.methodType(void.class, String.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Trạng thái trận trước khi đổi sang chỉ số người chơi và bitset
+     */
+    private static final class BoxedState {
+        private enum GrainType { RICE, CHAFF }
+        private enum PowerupType { NONE, SCORE_BUFF, SCORE_DEBUFF }
+
+        private final int totalGrains;
+        private final Map<String, Integer> playerScores = new HashMap<>();
+        private final Map<String, Set<Integer>> playerClicks = new HashMap<>();
+        private final GrainType[] grainTypes;
+        private final PowerupType[] powerupTypes;
+        private final Set<Integer> allRiceClickedPositions = new HashSet<>();
+
+        BoxedState(String player1, String player2, BoardLayout.Params board, Random random) {
+            this.totalGrains = board.getTotalGrains();
+            playerScores.put(player1, 0);
+            playerScores.put(player2, 0);
+            playerClicks.put(player1, new HashSet<>());
+            playerClicks.put(player2, new HashSet<>());
+
+            grainTypes = new GrainType[totalGrains];
+            powerupTypes = new PowerupType[totalGrains];
+            Arrays.fill(grainTypes, GrainType.CHAFF);
+            Arrays.fill(powerupTypes, PowerupType.NONE);
+            Set<Integer> ricePositions = new HashSet<>();
+            while (ricePositions.size() < board.getRiceCount()) {
+                int pos = random.nextInt(totalGrains);
+                if (ricePositions.add(pos)) {
+                    grainTypes[pos] = GrainType.RICE;
+                }
+            }
+            Set<Integer> powerupPositions = new HashSet<>();
+            int powerups = board.getBuffCount() + board.getDebuffCount();
+            while (powerupPositions.size() < powerups) {
+                int pos = random.nextInt(totalGrains);
+                if (powerupPositions.add(pos)) {
+                    powerupTypes[pos] = powerupPositions.size() <= board.getBuffCount()
+                            ? PowerupType.SCORE_BUFF : PowerupType.SCORE_DEBUFF;
+                }
+            }
+        }
+
+        String click(String player, int grainIndex) {
+            if (grainIndex < 0 || grainIndex >= totalGrains) {
+                return null;
+            }
+            GrainType grainType = grainTypes[grainIndex];
+            PowerupType powerupType = powerupTypes[grainIndex];
+            Set<Integer> playerClickSet = playerClicks.get(player);
+            int currentScore = playerScores.get(player);
+            boolean hasClicked = playerClickSet.contains(grainIndex);
+
+            if (grainType == GrainType.RICE) {
+                if (hasClicked) {
+                    return null;
+                }
+                playerClickSet.add(grainIndex);
+                allRiceClickedPositions.add(grainIndex);
+                playerScores.put(player, currentScore + 1);
+            } else {
+                if (powerupType != PowerupType.NONE) {
+                    if (hasClicked) {
+                        return null;
+                    }
+                    playerClickSet.add(grainIndex);
+                }
+                playerScores.put(player, Math.max(0, currentScore - 1));
+            }
+
+            String resultType = grainType == GrainType.RICE ? "RICE" : "CHAFF";
+            if (powerupType == PowerupType.SCORE_BUFF) {
+                resultType += "_BUFF";
+            } else if (powerupType == PowerupType.SCORE_DEBUFF) {
+                resultType += "_DEBUFF";
+            }
+            return resultType;
+        }
+    }
+
+    @TempDir
+    File tempDir;
+
+    private GameServer server;
+    private int[] grains;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @BeforeEach
+    void setUp() {
+        System.setProperty("game.server.store", "file");
+        System.setProperty("game.server.store.file", new File(tempDir, "game-store.log").getPath());
+        System.setProperty("game.server.results.spillFile", new File(tempDir, "game-results.spill").getPath());
+        server = new GameServer();
+
+        // Cùng một chuỗi click cho cả hai cách lưu: hạt ngẫu nhiên, có lặp lại
+        Random random = new Random(42);
+        grains = new int[CLICKS];
+        for (int i = 0; i < CLICKS; i++) {
+            grains[i] = random.nextInt(CLICKS);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+        System.clearProperty("game.server.store");
+        System.clearProperty("game.server.store.file");
+        System.clearProperty("game.server.results.spillFile");
+    }
+
+    @Test
+    void clickThroughput() throws Throwable {
+        Random random = new Random(7);
+        long boxedNanos = 0;
+        long boxedBytes = 0;
+        long slotNanos = 0;
+        long slotBytes = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            boolean measured = round >= WARMUP_ROUNDS;
+
+            BoxedState boxed = new BoxedState("alice", "bob", LARGE_BOARD, random);
+            long bytes = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            int results = 0;
+            for (int i = 0; i < CLICKS; i++) {
+                if (boxed.click((i & 1) == 0 ? "alice" : "bob", grains[i]) != null) {
+                    results++;
+                }
+            }
+            if (measured) {
+                boxedNanos += System.nanoTime() - start;
+                boxedBytes += threads.getCurrentThreadAllocatedBytes() - bytes;
+            }
+            assertTrue(results > 0);
+
+            GameSession session = new GameSession("GAME_BENCH_" + round, "alice", "bob", server, LARGE_BOARD);
+            bytes = threads.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < CLICKS; i++) {
+                String player = (i & 1) == 0 ? "alice" : "bob";
+                ON_PLAYER_ACTION.invokeExact(session, player, grains[i]);
+            }
+            if (measured) {
+                slotNanos += System.nanoTime() - start;
+                slotBytes += threads.getCurrentThreadAllocatedBytes() - bytes;
+            }
+        }
+
+        long clicks = (long) CLICKS * MEASURED_ROUNDS;
+        System.out.printf("Boxed state:  %.0f clicks/s, %.1f bytes/click%n",
+                clicks / (boxedNanos / 1e9), (double) boxedBytes / clicks);
+        System.out.printf("GameSession:  %.0f clicks/s, %.1f bytes/click%n",
+                clicks / (slotNanos / 1e9), (double) slotBytes / clicks);
+    }
+
+    @Test
+    void bytesPerClassicSession() {
+        Random random = new Random(7);
+        BoardLayout.Params classic = BoardLayout.Params.CLASSIC;
+        // Chạy thử để JIT và các class đã nạp xong
+        for (int i = 0; i < SESSIONS; i++) {
+            new BoxedState("alice", "bob", classic, random);
+            new GameSession("GAME_WARMUP_" + i, "alice", "bob", server, classic);
+        }
+
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < SESSIONS; i++) {
+            new BoxedState("alice", "bob", classic, random);
+        }
+        long boxedBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+        // Game ID tạo trước để không tính vào trận
+        String[] gameIds = new String[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            gameIds[i] = "GAME_" + i;
+        }
+        bytes = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < SESSIONS; i++) {
+            new GameSession(gameIds[i], "alice", "bob", server, classic);
+        }
+        long slotBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+        System.out.printf("Classic board, allocated per session: boxed state %d bytes, GameSession %d bytes"
+                + " (incl. mailbox and board generation)%n", boxedBytes / SESSIONS, slotBytes / SESSIONS);
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.gamesocket;
+// MatchHistoryBenchmark.java
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Lịch sử đấu trên một bảng cỡ hàng triệu trận: trang đầu và trang sâu (theo con trỏ)
+ * của người chơi ngẫu nhiên.
+ *
+ * Phần FileGameStore tự sinh dữ liệu trong thư mục tạm. Phần MySQL chỉ chạy khi có
+ * -Dbench.mysql=true, trên DB của -Dgame.server.db.url (nên là một DB riêng để thử: benchmark
+ * thêm bench.history.rows dòng vào game_results nếu bảng còn ít hơn), in EXPLAIN và thời gian
+ * của truy vấn UNION ALL hiện tại so với "player1 = ? OR player2 = ?" cũ.
+ *
+ * Không chạy cùng mvn test; chạy riêng:
+ * mvn test -Dtest=MatchHistoryBenchmark [-Dbench.history.rows=1000000] [-Dbench.mysql=true]
+ */
+class MatchHistoryBenchmark {
+    private static final int ROWS = Integer.getInteger("bench.history.rows", 1_000_000);
+    private static final int PLAYERS = Integer.getInteger("bench.history.players", 10_000);
+    private static final int QUERIES = 1_000;
+    private static final int PAGE_SIZE = 20;
+    private static final int INSERT_BATCH = 5_000;
+    private static final long START_MILLIS = 1_600_000_000_000L;
+
+    private static final String OLD_QUERY = """
+        SELECT id, game_id, player1, player2, winner, player1_score, player2_score, duration_seconds, played_at
+        FROM game_results
+        WHERE player1 = ? OR player2 = ?
+        ORDER BY played_at DESC
+        LIMIT ?
+    """;
+
+    @TempDir
+    File tempDir;
+
+    private static String player(int index) {
+        return "player" + index;
+    }
+
+    /**
+     * Trận thứ n: hai người chơi ngẫu nhiên khác nhau, mỗi trận cách nhau một giây
+     */
+    private static List<GameResultWriter.GameResult> generate(Random random, int from, int count) {
+        List<GameResultWriter.GameResult> batch = new ArrayList<>(count);
+        for (int n = from; n < from + count; n++) {
+            int p1 = random.nextInt(PLAYERS);
+            int p2 = (p1 + 1 + random.nextInt(PLAYERS - 1)) % PLAYERS;
+            String winner = random.nextBoolean() ? player(p1) : player(p2);
+            batch.add(new GameResultWriter.GameResult("bench-" + n, "GAME_" + n, player(p1), player(p2), winner,
+                    random.nextInt(60), random.nextInt(60), 100, START_MILLIS + n * 1000L));
+        }
+        return batch;
+    }
+
+    @Test
+    void fileStoreHistoryPages() throws Exception {
+        FileGameStore store = new FileGameStore(new File(tempDir, "game-store.log"));
+        store.open();
+        try {
+            Random random = new Random(42);
+            long loadStart = System.nanoTime();
+            for (int n = 0; n < ROWS; n += INSERT_BATCH) {
+                store.saveResults(generate(random, n, Math.min(INSERT_BATCH, ROWS - n)));
+            }
+            System.out.printf("FileGameStore: %d results written in %d ms%n", ROWS,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart));
+
+            measure("FileGameStore", store);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "bench.mysql", matches = "true")
+    void mysqlHistoryPages() throws Exception {
+        ConnectionPool pool = new ConnectionPool(ServerConfig.dbUrl(), ServerConfig.dbUser(),
+                ServerConfig.dbPassword(), ServerConfig.dbPoolSize(), ServerConfig.dbAcquireTimeoutMillis(),
+                ServerConfig.dbMaxLifetimeSeconds(), ServerConfig.dbValidationIntervalSeconds(),
+                ServerConfig.dbStatementCacheSize());
+        JdbcGameStore store = new JdbcGameStore(pool);
+        try {
+            store.open();
+            int existing = countResults(pool);
+            if (existing < ROWS) {
+                Random random = new Random(existing);
+                long loadStart = System.nanoTime();
+                for (int n = existing; n < ROWS; n += INSERT_BATCH) {
+                    store.saveResults(generate(random, n, Math.min(INSERT_BATCH, ROWS - n)));
+                }
+                System.out.printf("MySQL: %d results inserted in %d ms%n", ROWS - existing,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart));
+            }
+
+            try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+                stmt.execute("ANALYZE TABLE game_results");
+            }
+            explain(pool);
+            measure("MySQL UNION ALL", store);
+            measureOldQuery(pool);
+        } finally {
+            store.close();
+        }
+    }
+
+    private static int countResults(ConnectionPool pool) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM game_results")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Trang đầu và trang thứ 10 (đi theo con trỏ) của người chơi ngẫu nhiên
+     */
+    private static void measure(String name, GameStore store) throws GameStore.StoreException {
+        Random random = new Random(7);
+        long[] firstPage = new long[QUERIES];
+        long[] deepPage = new long[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            String username = player(random.nextInt(PLAYERS));
+            long start = System.nanoTime();
+            List<GameStore.MatchRecord> page = store.matchHistory(username, GameStore.NO_CURSOR, 0, PAGE_SIZE);
+            firstPage[q] = System.nanoTime() - start;
+            assertTrue(page.size() <= PAGE_SIZE);
+
+            long deepStart = System.nanoTime();
+            for (int i = 1; i < 10 && page.size() == PAGE_SIZE; i++) {
+                GameStore.MatchRecord last = page.get(page.size() - 1);
+                List<GameStore.MatchRecord> next = store.matchHistory(username, last.getPlayedAtMillis(),
+                        last.getId(), PAGE_SIZE);
+                if (!next.isEmpty()) {
+                    assertTrue(next.get(0).getPlayedAtMillis() <= last.getPlayedAtMillis());
+                }
+                page = next;
+            }
+            deepPage[q] = System.nanoTime() - deepStart;
+        }
+        report(name + " first page", firstPage);
+        report(name + " pages 2-10", deepPage);
+    }
+
+    private static void measureOldQuery(ConnectionPool pool) throws SQLException {
+        Random random = new Random(7);
+        long[] nanos = new long[QUERIES];
+        try (Connection conn = pool.getConnection(); PreparedStatement stmt = conn.prepareStatement(OLD_QUERY)) {
+            for (int q = 0; q < QUERIES; q++) {
+                String username = player(random.nextInt(PLAYERS));
+                long start = System.nanoTime();
+                stmt.setString(1, username);
+                stmt.setString(2, username);
+                stmt.setInt(3, PAGE_SIZE);
+                int rows = 0;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                    }
+                }
+                nanos[q] = System.nanoTime() - start;
+                assertTrue(rows <= PAGE_SIZE);
+            }
+        }
+        report("MySQL OR (old) first page", nanos);
+    }
+
+    private static void explain(ConnectionPool pool) throws SQLException {
+        String union = """
+            EXPLAIN SELECT * FROM (
+                (SELECT * FROM game_results WHERE player1 = ? ORDER BY played_at DESC, id DESC LIMIT ?)
+                UNION ALL
+                (SELECT * FROM game_results WHERE player2 = ? ORDER BY played_at DESC, id DESC LIMIT ?)
+            ) AS history ORDER BY played_at DESC, id DESC LIMIT ?
+        """;
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(union)) {
+                stmt.setString(1, player(0));
+                stmt.setInt(2, PAGE_SIZE);
+                stmt.setString(3, player(0));
+                stmt.setInt(4, PAGE_SIZE);
+                stmt.setInt(5, PAGE_SIZE);
+                printPlan("UNION ALL", stmt);
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + OLD_QUERY)) {
+                stmt.setString(1, player(0));
+                stmt.setString(2, player(0));
+                stmt.setInt(3, PAGE_SIZE);
+                printPlan("OR (old)", stmt);
+            }
+        }
+    }
+
+    private static void printPlan(String name, PreparedStatement explain) throws SQLException {
+        System.out.println("EXPLAIN " + name + ":");
+        try (ResultSet rs = explain.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder("  ");
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    row.append(meta.getColumnLabel(i)).append('=').append(rs.getString(i)).append(' ');
+                }
+                System.out.println(row);
+            }
+        }
+    }
+
+    private static void report(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        assertEquals(QUERIES, sorted.length);
+        System.out.printf("%s: %d queries, p50 %d us, p99 %d us, max %d us%n", name, sorted.length,
+                TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length / 2]),
+                TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length * 99 / 100]),
+                TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length - 1]));
+    }
+}